@@ -0,0 +1,67 @@
+package com.captainbern.mserver.benchmark;
+
+import io.netty.util.concurrent.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An executor which is "in the event loop" on a single thread, and runs its tasks right away
+ */
+class CurrentThreadExecutor extends AbstractEventExecutor {
+
+    private final Thread thread;
+
+    CurrentThreadExecutor(Thread thread) {
+        this.thread = thread;
+    }
+
+    @Override
+    public EventExecutorGroup parent() {
+        return null;
+    }
+
+    @Override
+    public boolean inEventLoop(Thread thread) {
+        return thread == this.thread;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        command.run();
+    }
+
+    @Override
+    public boolean isShuttingDown() {
+        return false;
+    }
+
+    @Override
+    public Future<?> shutdownGracefully(long quietPeriod, long timeout, TimeUnit unit) {
+        return terminationFuture();
+    }
+
+    @Override
+    public Future<?> terminationFuture() {
+        return new FailedFuture<Object>(this, new UnsupportedOperationException());
+    }
+
+    @Override
+    @Deprecated
+    public void shutdown() {
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return false;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return false;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+        return false;
+    }
+}
@@ -0,0 +1,64 @@
+package com.captainbern.mserver.benchmark;
+
+import com.captainbern.mserver.ByteBufUtils;
+import com.captainbern.mserver.ChatFormatter;
+import com.captainbern.mserver.SharedPacket;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.concurrent.EventExecutor;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares building the Disconnect packet for every login attempt (like it used to be done) with handing
+ * out the packet that was compiled when the kick message was loaded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KickPacketBenchmark {
+
+    @Param({"This is a Maintenance Server you silly goose!", "&cWe're down for maintenance, &lback at 18:00&r! <gold>Check the forums</gold> for updates"})
+    public String message;
+
+    private ByteBufAllocator allocator;
+    private EventExecutor executor;
+    private SharedPacket packet;
+
+    @Setup
+    public void setup() {
+        this.allocator = PooledByteBufAllocator.DEFAULT;
+
+        // The copies are per event loop, so the benchmark thread acts as one
+        this.executor = new CurrentThreadExecutor(Thread.currentThread());
+        this.packet = new SharedPacket();
+        this.packet.set(ByteBufUtils.createStringPacket(this.allocator, 0x0, ChatFormatter.toComponent(this.message).toString()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.packet.clear();
+    }
+
+    @Benchmark
+    public int encodeLegacy() {
+        ByteBuf packet = ByteBufUtils.createStringPacket(this.allocator, 0x0, new JSONObject().put("text", this.message).toString());
+        int readable = packet.readableBytes();
+        packet.release();
+        return readable;
+    }
+
+    @Benchmark
+    public int precompiled() {
+        ByteBuf packet = this.packet.duplicate(this.executor);
+        int readable = packet.readableBytes();
+        packet.release();
+        return readable;
+    }
+}
@@ -0,0 +1,40 @@
+package com.captainbern.mserver.benchmark;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+import java.util.logging.Formatter;
+import java.util.logging.LogRecord;
+
+/**
+ * The original ConsoleManager.DateOutputFormatter, kept around as a baseline for the benchmarks.
+ * Note that it isn't thread safe, the SimpleDateFormat is shared.
+ */
+public class LegacyLogFormatter extends Formatter {
+    private final SimpleDateFormat date;
+
+    public LegacyLogFormatter(String pattern) {
+        this.date = new SimpleDateFormat(pattern);
+    }
+
+    @Override
+    @SuppressWarnings("ThrowableResultOfMethodCallIgnored")
+    public String format(LogRecord record) {
+        StringBuilder builder = new StringBuilder();
+
+        builder.append(date.format(record.getMillis()));
+        builder.append(" [");
+        builder.append(record.getLevel().getLocalizedName().toUpperCase());
+        builder.append("] ");
+        builder.append(formatMessage(record));
+        builder.append('\n');
+
+        if (record.getThrown() != null) {
+            StringWriter writer = new StringWriter();
+            record.getThrown().printStackTrace(new PrintWriter(writer));
+            builder.append(writer.toString());
+        }
+
+        return builder.toString();
+    }
+}
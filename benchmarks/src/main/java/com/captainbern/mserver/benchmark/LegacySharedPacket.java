@@ -0,0 +1,61 @@
+package com.captainbern.mserver.benchmark;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.IllegalReferenceCountException;
+
+/**
+ * The original SharedPacket, kept around as a baseline for the benchmarks. Every duplicate retains
+ * (and every write releases) the one shared packet.
+ */
+public class LegacySharedPacket {
+
+    private volatile ByteBuf packet;
+
+    /**
+     * Swaps in the given packet. Packets that are still being written hold their own reference to
+     * the previous packet, so it's only freed once those are done.
+     * @param packet
+     */
+    public synchronized void set(ByteBuf packet) {
+        ByteBuf old = this.packet;
+        this.packet = Unpooled.unmodifiableBuffer(packet);
+
+        if (old != null)
+            old.release();
+    }
+
+    /**
+     * Releases the packet, for when it won't be used anymore
+     */
+    public synchronized void clear() {
+        ByteBuf old = this.packet;
+        this.packet = null;
+
+        if (old != null)
+            old.release();
+    }
+
+    public boolean isSet() {
+        return this.packet != null;
+    }
+
+    /**
+     * Returns a read-only, retained duplicate of the packet, which is released once it has been written,
+     * or null if there is no packet (anymore)
+     * @return
+     */
+    public ByteBuf duplicate() {
+        while (true) {
+            ByteBuf packet = this.packet;
+            if (packet == null)
+                return null;
+
+            try {
+                return packet.duplicate().retain();
+            } catch (IllegalReferenceCountException e) {
+                // The packet got swapped out and released in the meantime, retry with the new one
+            }
+        }
+    }
+}
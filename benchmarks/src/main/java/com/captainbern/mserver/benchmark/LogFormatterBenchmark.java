@@ -0,0 +1,68 @@
+package com.captainbern.mserver.benchmark;
+
+import com.captainbern.mserver.LogFormatter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Compares the legacy and the current log formatters. The records are created up front and all
+ * fall within the same second, like they do when a flood of connections is being logged.
+ * Run with -prof gc to compare the allocation rates as well.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogFormatterBenchmark {
+
+    @Param({"HH:mm:ss", "yyyy/MM/dd HH:mm:ss"})
+    public String pattern;
+
+    private LegacyLogFormatter legacyFormatter;
+    private LogFormatter formatter;
+
+    private LogRecord record;
+
+    @Setup
+    public void setup() {
+        this.legacyFormatter = new LegacyLogFormatter(this.pattern);
+        this.formatter = new LogFormatter(this.pattern);
+
+        this.record = new LogRecord(Level.INFO, "An exception occurred while handling the packets for: /127.0.0.1:51234");
+    }
+
+    @Benchmark
+    public String formatLegacy() {
+        return this.legacyFormatter.format(this.record);
+    }
+
+    @Benchmark
+    public String format() {
+        return this.formatter.format(this.record);
+    }
+
+    /**
+     * A single formatter shared by all threads, like the log handlers' formatters are. The legacy
+     * formatter can't be benchmarked like this, its SimpleDateFormat isn't thread safe.
+     */
+    @State(Scope.Benchmark)
+    public static class SharedFormatter {
+        private LogFormatter formatter;
+
+        @Setup
+        public void setup(LogFormatterBenchmark benchmark) {
+            this.formatter = new LogFormatter(benchmark.pattern);
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String formatShared(SharedFormatter shared) {
+        return shared.formatter.format(this.record);
+    }
+}
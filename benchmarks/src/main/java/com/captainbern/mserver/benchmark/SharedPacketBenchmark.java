@@ -0,0 +1,66 @@
+package com.captainbern.mserver.benchmark;
+
+import com.captainbern.mserver.SharedPacket;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares handing out the status packet from one shared buffer (the legacy SharedPacket) with
+ * handing it out from a copy per event loop. Every benchmark thread acts as an event loop: it takes a
+ * duplicate and releases it, like writing the packet does. Run with -t 1, 2, 4, ... (up to the amount
+ * of cores) to see how both scale.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SharedPacketBenchmark {
+
+    private LegacySharedPacket legacyPacket;
+    private SharedPacket packet;
+
+    @Setup
+    public void setup() {
+        // About the size of a status response with a favicon
+        this.legacyPacket = new LegacySharedPacket();
+        this.legacyPacket.set(PooledByteBufAllocator.DEFAULT.directBuffer(8192).writeZero(8192));
+
+        this.packet = new SharedPacket();
+        this.packet.set(PooledByteBufAllocator.DEFAULT.directBuffer(8192).writeZero(8192));
+    }
+
+    @Benchmark
+    public int duplicateLegacy() {
+        ByteBuf duplicate = this.legacyPacket.duplicate();
+        int readable = duplicate.readableBytes();
+        duplicate.release();
+        return readable;
+    }
+
+    @Benchmark
+    public int duplicate(Loop loop) {
+        ByteBuf duplicate = this.packet.duplicate(loop.executor);
+        int readable = duplicate.readableBytes();
+        duplicate.release();
+        return readable;
+    }
+
+    /**
+     * Makes the benchmark thread look like an event loop
+     */
+    @State(Scope.Thread)
+    public static class Loop {
+        private EventExecutor executor;
+
+        @Setup
+        public void setup() {
+            this.executor = new CurrentThreadExecutor(Thread.currentThread());
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.captainbern.mserver.benchmark;
+
+import com.captainbern.mserver.ByteBufUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the legacy and the current UTF codecs for ASCII and non-ASCII strings of several lengths.
+ * Note that the legacy writeUTF prefixes the amount of chars instead of bytes, so it is only
+ * correct for ASCII strings.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UTFBenchmark {
+
+    @Param({"16", "256", "8192"})
+    public int length;
+
+    @Param({"true", "false"})
+    public boolean ascii;
+
+    private String utf;
+    private ByteBuf buffer;
+
+    @Setup
+    public void setup() {
+        // Mix in some 2 and 3 byte characters (colour codes and accents in MOTDs, etc.)
+        String pattern = this.ascii ? "A Maintenance Server! " : "\u00A7cMaintenance \u00E9t\u00E9 \u2764 ";
+
+        StringBuilder builder = new StringBuilder(this.length);
+        while (builder.length() < this.length) {
+            builder.append(pattern.charAt(builder.length() % pattern.length()));
+        }
+        this.utf = builder.toString();
+
+        this.buffer = PooledByteBufAllocator.DEFAULT.directBuffer(this.length * 3 + 5);
+        ByteBufUtils.writeUTF(this.buffer, this.utf);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.buffer.release();
+    }
+
+    @Benchmark
+    public ByteBuf writeLegacy() {
+        this.buffer.writerIndex(0);
+        LegacyByteBufUtils.writeUTF(this.buffer, this.utf);
+        return this.buffer;
+    }
+
+    @Benchmark
+    public ByteBuf write() {
+        this.buffer.writerIndex(0);
+        ByteBufUtils.writeUTF(this.buffer, this.utf);
+        return this.buffer;
+    }
+
+    @Benchmark
+    public String readLegacy() {
+        this.buffer.readerIndex(0);
+        return LegacyByteBufUtils.readUTF(this.buffer);
+    }
+
+    @Benchmark
+    public String read() {
+        this.buffer.readerIndex(0);
+        return ByteBufUtils.readUTF(this.buffer);
+    }
+}
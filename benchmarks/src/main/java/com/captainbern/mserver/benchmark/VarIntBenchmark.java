@@ -0,0 +1,64 @@
+package com.captainbern.mserver.benchmark;
+
+import com.captainbern.mserver.ByteBufUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the legacy and the current VarInt codecs for values of every encoded size (1 to 5 bytes).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VarIntBenchmark {
+
+    @Param({"1", "300", "70000", "20000000", "-1"})
+    public int value;
+
+    private ByteBuf buffer;
+
+    @Setup
+    public void setup() {
+        this.buffer = PooledByteBufAllocator.DEFAULT.directBuffer(16);
+        // Leave some trailing bytes so the reads can take the fast path, just like they would in a packet
+        ByteBufUtils.writeVarInt(this.buffer, this.value);
+        this.buffer.writeLong(0L);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.buffer.release();
+    }
+
+    @Benchmark
+    public int readLegacy() {
+        this.buffer.readerIndex(0);
+        return LegacyByteBufUtils.readVarInt(this.buffer);
+    }
+
+    @Benchmark
+    public int read() {
+        this.buffer.readerIndex(0);
+        return ByteBufUtils.readVarInt(this.buffer);
+    }
+
+    @Benchmark
+    public ByteBuf writeLegacy() {
+        this.buffer.writerIndex(0);
+        LegacyByteBufUtils.writeVarInt(this.buffer, this.value);
+        return this.buffer;
+    }
+
+    @Benchmark
+    public ByteBuf write() {
+        this.buffer.writerIndex(0);
+        ByteBufUtils.writeVarInt(this.buffer, this.value);
+        return this.buffer;
+    }
+}
@@ -0,0 +1,405 @@
+package com.captainbern.mserver.loadgen;
+
+import com.captainbern.mserver.FrameDecoder;
+import com.captainbern.mserver.FramePrepender;
+import com.captainbern.mserver.LatencyHistogram;
+import com.captainbern.mserver.Main;
+import com.captainbern.mserver.MaintenanceServer;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.*;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.ScheduledFuture;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.Arrays.asList;
+
+/**
+ * Opens connections against a MaintenanceServer (by default one started in this JVM) and drives
+ * status pings and login attempts through them, after which it reports the throughput, the latency
+ * percentiles and the rate at which the server allocated memory.
+ *
+ * Without a rate, every connection starts a new sequence as soon as the previous one is done. With a
+ * rate, sequences are started on a fixed schedule and their latency is measured from the time they
+ * should have started, so a server that falls behind isn't hidden by the load generator waiting for it.
+ */
+public class LoadGenerator {
+
+    private static final String THREAD_PREFIX = "loadgen";
+    private static final FramePrepender FRAME_PREPENDER = new FramePrepender();
+
+    private final PrintStream out;
+
+    private final String host;
+    private final int port;
+    private final String hostname;
+    private final int protocolVersion;
+    private final String playerName;
+
+    private final int connections;
+    private final double rate;
+    private final double loginRatio;
+
+    private final EventLoopGroup group;
+    private final Bootstrap bootstrap = new Bootstrap();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong started = new AtomicLong();
+    private volatile long startTime;
+    private volatile boolean running;
+    private volatile boolean measuring;
+
+    private final LongAdder completedStatus = new LongAdder();
+    private final LongAdder completedLogins = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder connectFailures = new LongAdder();
+
+    private final LatencyHistogram statusLatency = new LatencyHistogram();
+    private final LatencyHistogram loginLatency = new LatencyHistogram();
+
+    public LoadGenerator(PrintStream out, OptionSet options) {
+        this.out = out;
+
+        this.host = (String) options.valueOf("host");
+        this.port = (int) options.valueOf("port");
+        this.hostname = (String) options.valueOf("hostname");
+        this.protocolVersion = (int) options.valueOf("protocol");
+        this.playerName = (String) options.valueOf("player");
+
+        this.connections = (int) options.valueOf("connections");
+        this.rate = (double) options.valueOf("rate");
+        this.loginRatio = (double) options.valueOf("login-ratio");
+
+        int threads = (int) options.valueOf("threads");
+        DefaultThreadFactory threadFactory = new DefaultThreadFactory(THREAD_PREFIX);
+
+        if (Epoll.isAvailable()) {
+            this.group = new EpollEventLoopGroup(threads, threadFactory);
+            this.bootstrap.channel(EpollSocketChannel.class);
+        } else {
+            this.group = new NioEventLoopGroup(threads, threadFactory);
+            this.bootstrap.channel(NioSocketChannel.class);
+        }
+
+        this.bootstrap
+                .group(this.group)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 5000)
+                .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+    }
+
+    /**
+     * Runs the load for the given amount of time, of which the warmup isn't measured
+     * @param warmup In seconds
+     * @param duration In seconds
+     * @param server The embedded server, or null when testing an external one
+     * @throws InterruptedException
+     */
+    public void run(int warmup, int duration, MaintenanceServer server) throws InterruptedException {
+        this.out.println("Running " + this.connections + " connections against " + this.host + ":" + this.port
+                + (this.rate > 0 ? " at " + this.rate + " sequences/s" : " as fast as possible")
+                + " (" + Math.round(this.loginRatio * 100) + "% logins), " + warmup + "s warmup, " + duration + "s measured");
+
+        this.startTime = System.nanoTime();
+        this.running = true;
+
+        ScheduledFuture<?> ticker = this.group.next().scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                fill();
+            }
+        }, 0, 1, TimeUnit.MILLISECONDS);
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(warmup));
+
+        long serverAllocated = getServerAllocatedBytes();
+        long measureStart = System.nanoTime();
+        this.measuring = true;
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(duration));
+
+        this.measuring = false;
+        long measureTime = System.nanoTime() - measureStart;
+        serverAllocated = getServerAllocatedBytes() - serverAllocated;
+
+        this.running = false;
+        ticker.cancel(false);
+
+        // Let the last sequences finish, so they aren't reported by the server as errors
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (this.inFlight.get() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        report(measureTime, serverAllocated, server != null);
+        this.group.shutdownGracefully().awaitUninterruptibly();
+    }
+
+    /**
+     * Starts new sequences, for as far as there are connections available and (with a rate) they are due
+     */
+    private void fill() {
+        while (this.running) {
+            if (this.inFlight.incrementAndGet() > this.connections) {
+                this.inFlight.decrementAndGet();
+                return;
+            }
+
+            long intended;
+            if (this.rate > 0) {
+                long sequence;
+                do {
+                    sequence = this.started.get();
+                    intended = this.startTime + (long) (sequence * TimeUnit.SECONDS.toNanos(1) / this.rate);
+
+                    if (intended - System.nanoTime() > 0) {
+                        this.inFlight.decrementAndGet();
+                        return;
+                    }
+                } while (!this.started.compareAndSet(sequence, sequence + 1));
+            } else {
+                this.started.incrementAndGet();
+                intended = System.nanoTime();
+            }
+
+            connect(intended);
+        }
+    }
+
+    private void connect(final long intended) {
+        final LoadHandler.Scenario scenario = ThreadLocalRandom.current().nextDouble() < this.loginRatio
+                ? LoadHandler.Scenario.LOGIN : LoadHandler.Scenario.STATUS;
+
+        this.bootstrap.clone()
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel channel) throws Exception {
+                        channel.pipeline()
+                                .addLast("timeout", new ReadTimeoutHandler(10))
+                                .addLast("frame_decoder", new FrameDecoder())
+                                .addLast("frame_prepender", FRAME_PREPENDER)
+                                .addLast("handler", new LoadHandler(LoadGenerator.this, scenario, intended));
+                    }
+                })
+                .connect(this.host, this.port)
+                .addListener(new ChannelFutureListener() {
+                    @Override
+                    public void operationComplete(ChannelFuture future) throws Exception {
+                        if (!future.isSuccess()) {
+                            // The ticker picks up the slot again, starting a new sequence from here could recurse
+                            inFlight.decrementAndGet();
+                            if (measuring)
+                                connectFailures.increment();
+                        }
+                    }
+                });
+    }
+
+    protected void completed(LoadHandler.Scenario scenario, long startNanos) {
+        if (this.measuring) {
+            if (scenario == LoadHandler.Scenario.STATUS) {
+                this.completedStatus.increment();
+                this.statusLatency.recordSince(startNanos);
+            } else {
+                this.completedLogins.increment();
+                this.loginLatency.recordSince(startNanos);
+            }
+        }
+
+        this.inFlight.decrementAndGet();
+        fill();
+    }
+
+    protected void failed(LoadHandler.Scenario scenario) {
+        if (this.measuring)
+            this.failures.increment();
+
+        this.inFlight.decrementAndGet();
+        fill();
+    }
+
+    private void report(long measureTime, long serverAllocated, boolean embedded) {
+        double seconds = measureTime / (double) TimeUnit.SECONDS.toNanos(1);
+        long status = this.completedStatus.sum();
+        long logins = this.completedLogins.sum();
+        long sequences = status + logins;
+
+        this.out.println();
+        this.out.println(String.format("Sequences:   %d (%d status, %d login), %d failed, %d failed to connect",
+                sequences, status, logins, this.failures.sum(), this.connectFailures.sum()));
+        this.out.println(String.format("Throughput:  %.1f sequences/s", sequences / seconds));
+
+        reportLatency("status", this.statusLatency);
+        reportLatency("login", this.loginLatency);
+
+        if (embedded && serverAllocated >= 0) {
+            this.out.println(String.format("Allocation:  %.1f MB/s by the server, %.0f bytes per sequence",
+                    serverAllocated / seconds / (1024 * 1024), sequences == 0 ? 0D : serverAllocated / (double) sequences));
+        } else {
+            this.out.println("Allocation:  n/a, only measured for an embedded server");
+        }
+    }
+
+    private void reportLatency(String name, LatencyHistogram histogram) {
+        if (histogram.getCount() == 0)
+            return;
+
+        this.out.println(String.format("Latency:     %-6s p50 %dus, p99 %dus, p99.9 %dus, mean %dus", name,
+                histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(99),
+                histogram.getValueAtPercentile(99.9), histogram.getSum() / histogram.getCount()));
+    }
+
+    /**
+     * Returns the amount of bytes allocated by all threads but the load generator's own, or -1 if the JVM can't tell
+     * @return
+     */
+    private static long getServerAllocatedBytes() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (!(threadBean instanceof com.sun.management.ThreadMXBean))
+            return -1;
+
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+        if (!allocationBean.isThreadAllocatedMemorySupported())
+            return -1;
+
+        long allocated = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread == Thread.currentThread() || thread.getName().startsWith(THREAD_PREFIX))
+                continue;
+
+            allocated += Math.max(0, allocationBean.getThreadAllocatedBytes(thread.getId()));
+        }
+        return allocated;
+    }
+
+    public int getProtocolVersion() {
+        return this.protocolVersion;
+    }
+
+    public String getHostname() {
+        return this.hostname;
+    }
+
+    public int getPort() {
+        return this.port;
+    }
+
+    public String getPlayerName() {
+        return this.playerName;
+    }
+
+    public static void main(String[] args) throws Exception {
+        OptionParser optionParser = new OptionParser() {
+            {
+                accepts("host").withRequiredArg().ofType(String.class).defaultsTo("127.0.0.1")
+                        .describedAs("The address of the server");
+
+                accepts("port").withRequiredArg().ofType(int.class).defaultsTo(25599)
+                        .describedAs("The port of the server");
+
+                accepts("embedded").withRequiredArg().ofType(boolean.class).defaultsTo(true)
+                        .describedAs("Whether to start a MaintenanceServer in this JVM, on the host and port");
+
+                accepts("server-args").withRequiredArg().ofType(String.class).defaultsTo("")
+                        .describedAs("Extra (space separated) options for the embedded server, e.g. \"--pooled-buffers false\"");
+
+                accepts("connections").withRequiredArg().ofType(int.class).defaultsTo(64)
+                        .describedAs("The maximum amount of concurrent connections");
+
+                accepts("rate").withRequiredArg().ofType(double.class).defaultsTo(0D)
+                        .describedAs("The amount of sequences to start per second (0 starts them as fast as the connections allow)");
+
+                accepts("login-ratio").withRequiredArg().ofType(double.class).defaultsTo(0.2D)
+                        .describedAs("The fraction of sequences that are login attempts instead of status pings");
+
+                accepts("warmup").withRequiredArg().ofType(int.class).defaultsTo(5)
+                        .describedAs("The amount of seconds to run before measuring");
+
+                accepts("duration").withRequiredArg().ofType(int.class).defaultsTo(10)
+                        .describedAs("The amount of seconds to measure");
+
+                accepts("threads").withRequiredArg().ofType(int.class).defaultsTo(0)
+                        .describedAs("The amount of load generator threads (0 lets Netty decide)");
+
+                accepts("hostname").withRequiredArg().ofType(String.class).defaultsTo("localhost")
+                        .describedAs("The hostname sent in the handshake");
+
+                accepts("protocol").withRequiredArg().ofType(int.class).defaultsTo(47)
+                        .describedAs("The protocol version sent in the handshake");
+
+                accepts("player").withRequiredArg().ofType(String.class).defaultsTo("LoadGenerator")
+                        .describedAs("The name to log in with");
+
+                acceptsAll(asList("h", "?", "help"), "Displays some help/info");
+            }
+        };
+
+        OptionSet options = optionParser.parse(args);
+
+        if (options.has("help")) {
+            optionParser.printHelpOn(System.out);
+            return;
+        }
+
+        // The server takes over System.out for its own logging
+        PrintStream out = System.out;
+        MaintenanceServer server = null;
+
+        if ((boolean) options.valueOf("embedded"))
+            server = startServer(options);
+
+        try {
+            new LoadGenerator(out, options).run((int) options.valueOf("warmup"), (int) options.valueOf("duration"), server);
+        } finally {
+            out.flush();
+            System.exit(0);
+        }
+    }
+
+    private static MaintenanceServer startServer(OptionSet options) throws IOException {
+        File log = File.createTempFile("loadgen-server", ".log");
+
+        List<String> args = new ArrayList<>(Arrays.asList(
+                "--config", "false",
+                "--jline", "false",
+                "--log", log.getPath(),
+                "--log-overflow-policy", "drop",
+                "--ip", (String) options.valueOf("host"),
+                "--port", String.valueOf(options.valueOf("port")),
+                // Every connection comes from the same address
+                "--throttle-rate", "0"
+        ));
+
+        String serverArgs = ((String) options.valueOf("server-args")).trim();
+        if (!serverArgs.isEmpty())
+            args.addAll(Arrays.asList(serverArgs.split("\\s+")));
+
+        System.out.println("Starting an embedded MaintenanceServer, logging to " + log);
+
+        MaintenanceServer server = new MaintenanceServer(Main.createOptionParser().parse(args.toArray(new String[args.size()])));
+        server.bind();
+        server.start();
+        return server;
+    }
+}
@@ -0,0 +1,100 @@
+package com.captainbern.mserver.loadgen;
+
+import com.captainbern.mserver.ByteBufUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+
+/**
+ * Drives a single connection through either a handshake, status request and ping, or a handshake
+ * and login attempt, and reports back to the LoadGenerator once the server answered (or didn't).
+ */
+public class LoadHandler extends SimpleChannelInboundHandler<ByteBuf> {
+
+    public static enum Scenario {
+        STATUS,
+        LOGIN
+    }
+
+    private final LoadGenerator generator;
+    private final Scenario scenario;
+    private final long startNanos;
+
+    private boolean statusReceived;
+    private boolean completed;
+
+    /**
+     * @param generator
+     * @param scenario
+     * @param startNanos The System#nanoTime() at which this connection should have started
+     */
+    public LoadHandler(LoadGenerator generator, Scenario scenario, long startNanos) {
+        this.generator = generator;
+        this.scenario = scenario;
+        this.startNanos = startNanos;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        ByteBuf handshake = ctx.alloc().buffer();
+        ByteBufUtils.writeVarInt(handshake, 0x00);
+        ByteBufUtils.writeVarInt(handshake, this.generator.getProtocolVersion());
+        ByteBufUtils.writeUTF(handshake, this.generator.getHostname());
+        handshake.writeShort(this.generator.getPort());
+        ByteBufUtils.writeVarInt(handshake, this.scenario == Scenario.STATUS ? 1 : 2);
+        ctx.write(handshake);
+
+        ByteBuf request = ctx.alloc().buffer();
+        if (this.scenario == Scenario.STATUS) {
+            // Status Request
+            ByteBufUtils.writeVarInt(request, 0x00);
+        } else {
+            // Login Start
+            ByteBufUtils.writeVarInt(request, 0x00);
+            ByteBufUtils.writeUTF(request, this.generator.getPlayerName());
+        }
+        ctx.writeAndFlush(request);
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, ByteBuf byteBuf) throws Exception {
+        int opcode = ByteBufUtils.readVarInt(byteBuf);
+
+        if (this.scenario == Scenario.LOGIN) {
+            // Disconnect, which is all the server will ever send
+            if (opcode == 0x00)
+                complete(ctx);
+        } else if (opcode == 0x00 && !this.statusReceived) {
+            // Status Response, answer it with a Ping like a client does
+            this.statusReceived = true;
+
+            ByteBuf ping = ctx.alloc().buffer(9);
+            ByteBufUtils.writeVarInt(ping, 0x01);
+            ping.writeLong(this.startNanos);
+            ctx.writeAndFlush(ping);
+        } else if (opcode == 0x01 && this.statusReceived) {
+            // Pong
+            complete(ctx);
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (!this.completed) {
+            this.completed = true;
+            this.generator.failed(this.scenario);
+        }
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        // Reported as a failure once the channel is closed
+        ctx.close();
+    }
+
+    private void complete(ChannelHandlerContext ctx) {
+        this.completed = true;
+        this.generator.completed(this.scenario, this.startNanos);
+        ctx.close();
+    }
+}
@@ -0,0 +1,257 @@
+package com.captainbern.mserver;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * An immutable, hash-indexed snapshot of the (vanilla formatted) whitelist and ban lists.
+ * All lookups are hash probes, so they are cheap enough to be done on the event loop.
+ */
+public class AccessList {
+
+    private static final String DATE_FORMAT = "yyyy-MM-dd HH:mm:ss Z";
+    private static final long FOREVER = Long.MAX_VALUE;
+    private static final Pattern IPV4_PATTERN = Pattern.compile("\\d{1,3}(\\.\\d{1,3}){3}");
+
+    public static final AccessList EMPTY = new AccessList();
+
+    // Name (lowercase) / UUID -> expiry date
+    private final Map<String, Long> bannedNames = new HashMap<>();
+    private final Map<UUID, Long> bannedUUIDs = new HashMap<>();
+
+    // Exact addresses and, per prefix length, the masked CIDR ranges -> expiry date
+    private final Map<InetAddress, Long> bannedAddresses = new HashMap<>();
+    private final Map<Integer, Map<InetAddress, Long>> bannedRanges = new TreeMap<>(Collections.reverseOrder());
+
+    private final Set<String> whitelistedNames = new HashSet<>();
+    private final Set<UUID> whitelistedUUIDs = new HashSet<>();
+
+    private AccessList() {
+    }
+
+    /**
+     * Loads the given files into a new AccessList. Missing files are treated as empty lists, a file that can't be
+     * read (or is being written, half way) keeps the entries it had in the previous AccessList.
+     * @param bannedPlayers
+     * @param bannedIps
+     * @param whitelist
+     * @param previous The AccessList that is being replaced, {@link #EMPTY} for the first one
+     * @return
+     */
+    public static AccessList load(File bannedPlayers, File bannedIps, File whitelist, AccessList previous) {
+        AccessList accessList = new AccessList();
+        SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_FORMAT);
+
+        try {
+            for (JSONObject entry : readEntries(bannedPlayers)) {
+                long expires = parseExpiry(entry, dateFormat);
+
+                String name = entry.optString("name", null);
+                if (name != null)
+                    accessList.bannedNames.put(name.toLowerCase(Locale.ENGLISH), expires);
+
+                UUID uuid = parseUUID(entry);
+                if (uuid != null)
+                    accessList.bannedUUIDs.put(uuid, expires);
+            }
+        } catch (IOException e) {
+            MaintenanceServer.LOGGER.warn("Failed to load " + bannedPlayers + ", keeping the previous player bans", e);
+            accessList.bannedNames.putAll(previous.bannedNames);
+            accessList.bannedUUIDs.putAll(previous.bannedUUIDs);
+        }
+
+        try {
+            for (JSONObject entry : readEntries(bannedIps)) {
+                String ip = entry.optString("ip", null);
+                if (ip == null)
+                    continue;
+
+                try {
+                    accessList.addBannedAddress(ip, parseExpiry(entry, dateFormat));
+                } catch (UnknownHostException | IllegalArgumentException e) {
+                    MaintenanceServer.LOGGER.warn("Ignoring invalid IP ban entry \"" + ip + "\" in " + bannedIps);
+                }
+            }
+        } catch (IOException e) {
+            MaintenanceServer.LOGGER.warn("Failed to load " + bannedIps + ", keeping the previous IP bans", e);
+            accessList.bannedAddresses.putAll(previous.bannedAddresses);
+            accessList.bannedRanges.putAll(previous.bannedRanges);
+        }
+
+        try {
+            for (JSONObject entry : readEntries(whitelist)) {
+                String name = entry.optString("name", null);
+                if (name != null)
+                    accessList.whitelistedNames.add(name.toLowerCase(Locale.ENGLISH));
+
+                UUID uuid = parseUUID(entry);
+                if (uuid != null)
+                    accessList.whitelistedUUIDs.add(uuid);
+            }
+        } catch (IOException e) {
+            MaintenanceServer.LOGGER.warn("Failed to load " + whitelist + ", keeping the previous whitelist", e);
+            accessList.whitelistedNames.addAll(previous.whitelistedNames);
+            accessList.whitelistedUUIDs.addAll(previous.whitelistedUUIDs);
+        }
+
+        MaintenanceServer.LOGGER.info("Loaded " + Math.max(accessList.bannedNames.size(), accessList.bannedUUIDs.size()) + " player bans, "
+                + accessList.getBannedAddressCount() + " IP bans and " + accessList.whitelistedNames.size() + " whitelisted players");
+
+        return accessList;
+    }
+
+    public boolean isBanned(String name) {
+        return isActive(this.bannedNames.get(name.toLowerCase(Locale.ENGLISH)))
+                || isActive(this.bannedUUIDs.get(getOfflineUUID(name)));
+    }
+
+    public boolean isBanned(InetAddress address) {
+        if (isActive(this.bannedAddresses.get(address)))
+            return true;
+
+        // One probe per distinct prefix length, not per entry
+        byte[] bytes = address.getAddress();
+        for (Map.Entry<Integer, Map<InetAddress, Long>> ranges : this.bannedRanges.entrySet()) {
+            if (ranges.getKey() > bytes.length * 8)
+                continue;
+
+            try {
+                InetAddress masked = InetAddress.getByAddress(mask(bytes, ranges.getKey()));
+                if (isActive(ranges.getValue().get(masked)))
+                    return true;
+            } catch (UnknownHostException e) {
+                // Can't happen, the address has a valid length
+            }
+        }
+
+        return false;
+    }
+
+    public boolean isWhitelisted(String name) {
+        return this.whitelistedNames.contains(name.toLowerCase(Locale.ENGLISH))
+                || this.whitelistedUUIDs.contains(getOfflineUUID(name));
+    }
+
+    private int getBannedAddressCount() {
+        int count = this.bannedAddresses.size();
+        for (Map<InetAddress, Long> ranges : this.bannedRanges.values()) {
+            count += ranges.size();
+        }
+        return count;
+    }
+
+    private void addBannedAddress(String ip, long expires) throws UnknownHostException {
+        int slash = ip.indexOf('/');
+        if (slash == -1) {
+            this.bannedAddresses.put(parseLiteralAddress(ip), expires);
+            return;
+        }
+
+        byte[] bytes = parseLiteralAddress(ip.substring(0, slash)).getAddress();
+        int prefix = Integer.parseInt(ip.substring(slash + 1));
+        if (prefix < 0 || prefix > bytes.length * 8)
+            throw new IllegalArgumentException("Invalid prefix length: " + prefix);
+
+        Map<InetAddress, Long> ranges = this.bannedRanges.get(prefix);
+        if (ranges == null)
+            this.bannedRanges.put(prefix, ranges = new HashMap<>());
+
+        ranges.put(InetAddress.getByAddress(mask(bytes, prefix)), expires);
+    }
+
+    private static InetAddress parseLiteralAddress(String ip) throws UnknownHostException {
+        // Only accept literals, we don't want to do DNS lookups for (bogus) entries
+        if (ip.indexOf(':') == -1 && !IPV4_PATTERN.matcher(ip).matches())
+            throw new UnknownHostException(ip);
+
+        return InetAddress.getByName(ip);
+    }
+
+    private static byte[] mask(byte[] address, int prefix) {
+        byte[] masked = new byte[address.length];
+        for (int i = 0; i < address.length; i++) {
+            int bits = Math.min(8, Math.max(0, prefix - i * 8));
+            masked[i] = (byte) (address[i] & (0xFF00 >> bits));
+        }
+        return masked;
+    }
+
+    private static boolean isActive(Long expires) {
+        return expires != null && expires > System.currentTimeMillis();
+    }
+
+    private static UUID getOfflineUUID(String name) {
+        return UUID.nameUUIDFromBytes(("OfflinePlayer:" + name).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static UUID parseUUID(JSONObject entry) {
+        String uuid = entry.optString("uuid", null);
+        if (uuid == null)
+            return null;
+
+        try {
+            return UUID.fromString(uuid);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static long parseExpiry(JSONObject entry, SimpleDateFormat dateFormat) {
+        String expires = entry.optString("expires", "forever");
+        if (expires.equalsIgnoreCase("forever"))
+            return FOREVER;
+
+        try {
+            return dateFormat.parse(expires).getTime();
+        } catch (ParseException e) {
+            return FOREVER;
+        }
+    }
+
+    /**
+     * Reads the objects of the JSON array in the given file. Missing files are treated as empty arrays.
+     * @param file
+     * @return
+     * @throws IOException If the file can't be read, or isn't a JSON array
+     */
+    static List<JSONObject> readEntries(File file) throws IOException {
+        List<JSONObject> entries = new ArrayList<>();
+        if (!file.exists())
+            return entries;
+
+        Reader reader = null;
+        try {
+            reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8);
+            JSONArray array = new JSONArray(new JSONTokener(reader));
+
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject entry = array.optJSONObject(i);
+                if (entry != null)
+                    entries.add(entry);
+            }
+        } catch (JSONException e) {
+            throw new IOException("Invalid JSON in " + file, e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // Swallow
+                }
+            }
+        }
+
+        return entries;
+    }
+}
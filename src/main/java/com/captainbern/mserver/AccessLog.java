@@ -0,0 +1,396 @@
+package com.captainbern.mserver;
+
+import io.netty.util.internal.PlatformDependent;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A binary log of every ping and login attempt, meant for abuse analysis (see {@link AccessLogQuery}).
+ *
+ * Every event is a fixed-width record of {@link #RECORD_SIZE} bytes (big endian):
+ * <pre>
+ *  0  long  timestamp (milliseconds since the epoch)
+ *  8  long  address, high half (IPv4 addresses are stored IPv4-mapped)
+ * 16  long  address, low half
+ * 24  byte  state the client asked for in its handshake (1 status, 2 login, 0 legacy ping)
+ * 25  byte  outcome, see {@link Outcome}
+ * 26  short reserved
+ * 28  int   protocol version (-1 for legacy pings)
+ * 32  long  hash of the hostname the client connected with (0 if unknown)
+ * 40  long  hash of the player name (0 if there is none)
+ * </pre>
+ * Records are appended to memory-mapped segments of a fixed size, which start with a {@link #HEADER_SIZE}
+ * byte header and are named after the time of their first record. A segment is rotated once it's full or
+ * an hour old, and is then truncated to the records it holds. The names behind the hashes are written to
+ * a text file next to each segment, once per segment.
+ *
+ * The event loops hand their events to a single writer thread through a lock-free ring buffer, like the
+ * {@link AsyncLogHandler} does, but the fields are written straight into preallocated slots. The only
+ * allocation when logging an event is the copy of the address bytes that InetAddress hands out (4 or 16
+ * bytes, short-lived). Events are dropped (and counted) when the ring is full.
+ */
+public class AccessLog {
+
+    public static enum Outcome {
+        STATUS,
+        LEGACY_STATUS,
+        KICKED,
+        BANNED,
+        NOT_WHITELISTED
+    }
+
+    public static final int MAGIC = 0x4D53414C; // "MSAL"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int RECORD_SIZE = 48;
+
+    public static final String SEGMENT_PREFIX = "access-";
+    public static final String SEGMENT_SUFFIX = ".bin";
+    public static final String NAMES_SUFFIX = ".names";
+
+    private static final long SEGMENT_DURATION = TimeUnit.HOURS.toMillis(1);
+
+    private static final int CAPACITY = 64 * 1024;
+
+    /**
+     * The names of a segment are only written once, but a flood of random names shouldn't eat all memory
+     */
+    private static final int MAX_NAMES_PER_SEGMENT = 1024 * 1024;
+
+    private static final long IDLE_PARK = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * Since Java 9 the cleaner of a direct buffer can't be reached anymore, sun.misc.Unsafe#invokeCleaner
+     * has taken its place. Both are null on Java 8.
+     */
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private final File directory;
+    private final int segmentSize;
+
+    // The ring buffer, see AsyncLogHandler. A slot holds 4 longs and 2 strings.
+    private final AtomicLongArray sequences;
+    private final long[] values;
+    private final AtomicReferenceArray<String> strings;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private long head; // Only touched by the writer
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    // Only touched by the writer
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private long segmentStart;
+    private Writer names;
+    private final Set<Long> writtenNames = new HashSet<>();
+
+    /**
+     * @param directory The directory the segments are written to
+     * @param segmentSize The maximum size of a segment in bytes, a mapped segment can't be 2 GB or larger
+     */
+    public AccessLog(File directory, long segmentSize) {
+        if (segmentSize < HEADER_SIZE + RECORD_SIZE || segmentSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("A segment must hold at least one record and be smaller than 2 GB");
+
+        this.directory = directory;
+        this.segmentSize = (int) segmentSize;
+
+        this.sequences = new AtomicLongArray(CAPACITY);
+        for (int i = 0; i < CAPACITY; i++) {
+            this.sequences.set(i, i);
+        }
+        this.values = new long[CAPACITY * 4];
+        this.strings = new AtomicReferenceArray<>(CAPACITY * 2);
+        this.mask = CAPACITY - 1;
+
+        this.writer = new Thread("AccessLogWriter") {
+            @Override
+            public void run() {
+                drainLoop();
+            }
+        };
+        this.writer.setDaemon(true);
+    }
+
+    public void start() {
+        this.writer.start();
+    }
+
+    /**
+     * Logs an event, called from the event loops
+     * @param address The address of the client
+     * @param state The state the client asked for in its handshake (0 for legacy pings)
+     * @param protocolVersion
+     * @param host The hostname the client connected with, or null
+     * @param name The player name, or null
+     * @param outcome
+     */
+    public void record(InetAddress address, int state, int protocolVersion, String host, String name, Outcome outcome) {
+        long position = this.tail.get();
+        int index;
+
+        while (true) {
+            index = (int) position & this.mask;
+            long difference = this.sequences.get(index) - position;
+
+            if (difference == 0) {
+                if (this.tail.compareAndSet(position, position + 1))
+                    break;
+                position = this.tail.get();
+            } else if (difference < 0) {
+                // The writer is behind, rather lose an event than make the event loop wait
+                this.dropped.incrementAndGet();
+                return;
+            } else {
+                position = this.tail.get();
+            }
+        }
+
+        byte[] bytes = address.getAddress();
+        long high = 0;
+        long low;
+        if (bytes.length == 4) {
+            low = 0xFFFF00000000L | ((bytes[0] & 0xFFL) << 24) | ((bytes[1] & 0xFFL) << 16) | ((bytes[2] & 0xFFL) << 8) | (bytes[3] & 0xFFL);
+        } else {
+            high = toLong(bytes, 0);
+            low = toLong(bytes, 8);
+        }
+
+        int offset = index * 4;
+        this.values[offset] = System.currentTimeMillis();
+        this.values[offset + 1] = high;
+        this.values[offset + 2] = low;
+        this.values[offset + 3] = ((long) (state & 0xFF) << 56) | ((long) outcome.ordinal() << 48) | (protocolVersion & 0xFFFFFFFFL);
+        this.strings.lazySet(index * 2, host);
+        this.strings.lazySet(index * 2 + 1, name);
+
+        // Publishes the plain writes above to the writer
+        this.sequences.set(index, position + 1);
+    }
+
+    public long getWrittenRecords() {
+        return this.written.get();
+    }
+
+    /**
+     * Returns the amount of events that were dropped because the writer couldn't keep up
+     * @return
+     */
+    public long getDroppedRecords() {
+        return this.dropped.get();
+    }
+
+    /**
+     * Writes whatever is still queued and closes the current segment
+     */
+    public void close() {
+        this.running = false;
+        LockSupport.unpark(this.writer);
+
+        try {
+            this.writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drainLoop() {
+        try {
+            while (true) {
+                int batch = 0;
+                while (poll())
+                    batch++;
+
+                if (batch == 0) {
+                    if (!this.running)
+                        break;
+
+                    LockSupport.parkNanos(this, IDLE_PARK);
+                } else if (this.names != null) {
+                    this.names.flush();
+                }
+            }
+        } catch (IOException e) {
+            MaintenanceServer.LOGGER.warn("Failed to write the access log, no more events will be logged", e);
+            this.running = false;
+        } finally {
+            try {
+                closeSegment();
+            } catch (IOException e) {
+                MaintenanceServer.LOGGER.warn("Failed to close the access log", e);
+            }
+        }
+    }
+
+    private boolean poll() throws IOException {
+        int index = (int) this.head & this.mask;
+        if (this.sequences.get(index) != this.head + 1)
+            return false;
+
+        int offset = index * 4;
+        long timestamp = this.values[offset];
+        String host = this.strings.get(index * 2);
+        String name = this.strings.get(index * 2 + 1);
+
+        if (this.segment == null || this.segment.remaining() < RECORD_SIZE || timestamp - this.segmentStart >= SEGMENT_DURATION)
+            rotate(timestamp);
+
+        this.segment.putLong(timestamp);
+        this.segment.putLong(this.values[offset + 1]);
+        this.segment.putLong(this.values[offset + 2]);
+        long packed = this.values[offset + 3];
+        this.segment.put((byte) (packed >>> 56));
+        this.segment.put((byte) (packed >>> 48));
+        this.segment.putShort((short) 0);
+        this.segment.putInt((int) packed);
+        this.segment.putLong(nameHash(host == null ? null : StatusProfiles.normalizeHost(host)));
+        this.segment.putLong(nameHash(name));
+
+        this.strings.lazySet(index * 2, null);
+        this.strings.lazySet(index * 2 + 1, null);
+        this.sequences.lazySet(index, this.head + this.mask + 1);
+        this.head++;
+
+        this.written.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Returns the hash of the given name, and writes the name to the names of the segment if it's new
+     * @param name
+     * @return
+     * @throws IOException
+     */
+    private long nameHash(String name) throws IOException {
+        if (name == null)
+            return 0;
+
+        long hash = hash(name);
+        if (this.writtenNames.size() < MAX_NAMES_PER_SEGMENT && this.writtenNames.add(hash)) {
+            // Control characters would break the lines, and there's no legitimate use for them
+            this.names.write(Long.toHexString(hash) + "\t" + name.replaceAll("\\p{Cntrl}", "?") + "\n");
+        }
+        return hash;
+    }
+
+    private void rotate(long timestamp) throws IOException {
+        closeSegment();
+
+        if (!this.directory.isDirectory() && !this.directory.mkdirs())
+            throw new IOException("Couldn't create " + this.directory);
+
+        // Never reuse the name of an existing segment, the clock may have jumped back
+        long start = timestamp;
+        while (new File(this.directory, SEGMENT_PREFIX + start + SEGMENT_SUFFIX).exists())
+            start++;
+
+        File file = new File(this.directory, SEGMENT_PREFIX + start + SEGMENT_SUFFIX);
+        this.channel = new RandomAccessFile(file, "rw").getChannel();
+        this.segment = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, this.segmentSize);
+        this.segment.putInt(MAGIC);
+        this.segment.putInt(VERSION);
+        this.segment.putInt(RECORD_SIZE);
+        this.segment.putInt(0);
+        this.segmentStart = timestamp;
+
+        this.names = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(
+                new File(this.directory, SEGMENT_PREFIX + start + NAMES_SUFFIX)), StandardCharsets.UTF_8));
+        this.writtenNames.clear();
+    }
+
+    /**
+     * Unmaps the current segment and cuts off the part that isn't used
+     * @throws IOException
+     */
+    private void closeSegment() throws IOException {
+        if (this.segment == null)
+            return;
+
+        int length = this.segment.position();
+        this.segment.force();
+        unmap(this.segment);
+        this.segment = null;
+
+        this.channel.truncate(length);
+        this.channel.close();
+        this.names.close();
+    }
+
+    /**
+     * Unmaps the given segment right away, rather than whenever it's garbage collected. Windows can't truncate
+     * (or delete) a file that is still mapped.
+     * @param segment
+     */
+    private static void unmap(MappedByteBuffer segment) {
+        if (INVOKE_CLEANER != null) {
+            try {
+                INVOKE_CLEANER.invoke(UNSAFE, segment);
+                return;
+            } catch (ReflectiveOperationException e) {
+                MaintenanceServer.LOGGER.debug("Failed to unmap an access log segment", e);
+            }
+        }
+
+        // Java 8
+        PlatformDependent.freeDirectBuffer(segment);
+    }
+
+    private static long toLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            value = (value << 8) | (bytes[i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * The 64 bit FNV-1a hash of the lowercased name, hostnames and player names are case insensitive
+     * @param name
+     * @return
+     */
+    public static long hash(String name) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < name.length(); i++) {
+            hash ^= Character.toLowerCase(name.charAt(i));
+            hash *= 0x100000001B3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,461 @@
+package com.captainbern.mserver;
+
+import io.netty.util.internal.PlatformDependent;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+
+/**
+ * Answers "who pinged or tried to log in the most" from the segments of the {@link AccessLog}, run as
+ * <pre>
+ * java -jar MaintenanceServer.jar query --since 1h --top 20 --by ip,name
+ * </pre>
+ * Segments that only hold older events are skipped by their name, the first segment that's needed is
+ * binary searched for the first event in range and the rest is a sequential scan of the mapped files,
+ * counted into open addressing tables without any allocation per event.
+ */
+public class AccessLogQuery {
+
+    /**
+     * Events are written in about the order they happened, but not exactly
+     */
+    private static final int SEARCH_SLACK = 1024;
+
+    private final File directory;
+    private final long since;
+
+    private final CountTable addresses = new CountTable();
+    private final CountTable names = new CountTable();
+    private final CountTable hosts = new CountTable();
+
+    private final long[] outcomes = new long[AccessLog.Outcome.values().length];
+    private long events;
+    private int segments;
+
+    public AccessLogQuery(File directory, long since) {
+        this.directory = directory;
+        this.since = since;
+    }
+
+    public static void main(String[] args) {
+        OptionParser parser = new OptionParser() {
+            {
+                acceptsAll(asList("dir", "d")).withRequiredArg().ofType(String.class).defaultsTo("access-log")
+                        .describedAs("The directory of the access log");
+
+                acceptsAll(asList("since", "s")).withRequiredArg().ofType(String.class).defaultsTo("1h")
+                        .describedAs("How far back to look, like 30m, 1h or 7d (0 for everything)");
+
+                acceptsAll(asList("top", "n")).withRequiredArg().ofType(int.class).defaultsTo(10)
+                        .describedAs("The amount of entries to list");
+
+                accepts("by").withRequiredArg().ofType(String.class).defaultsTo("ip,name,host")
+                        .describedAs("What to list the top entries of: ip, name and/or host");
+
+                acceptsAll(asList("help", "h", "?"), "Shows this help");
+            }
+        };
+
+        OptionSet options = parser.parse(args);
+        if (options.has("help")) {
+            try {
+                parser.printHelpOn(System.out);
+            } catch (IOException e) {
+                // Swallow
+            }
+            return;
+        }
+
+        long since;
+        try {
+            since = parseDuration((String) options.valueOf("since"));
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid --since \"" + options.valueOf("since") + "\", use a duration like 30m, 1h or 7d");
+            return;
+        }
+        if (since < 0) {
+            System.err.println("--since can't be in the future");
+            return;
+        }
+        since = since == 0 ? 0 : System.currentTimeMillis() - since;
+
+        int top = (int) options.valueOf("top");
+        if (top < 0) {
+            System.err.println("--top can't be negative");
+            return;
+        }
+
+        AccessLogQuery query = new AccessLogQuery(new File((String) options.valueOf("dir")), since);
+        List<String> by = asList(((String) options.valueOf("by")).toLowerCase(Locale.ENGLISH).split(","));
+
+        try {
+            long start = System.nanoTime();
+            query.run();
+            long time = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            query.print(System.out, top, by, time);
+        } catch (IOException e) {
+            System.err.println("Failed to read the access log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Scans all segments holding events from since onwards
+     * @throws IOException
+     */
+    public void run() throws IOException {
+        List<Long> starts = listSegments(this.directory);
+
+        for (int i = 0; i < starts.size(); i++) {
+            // Everything in this segment happened before the next one was started
+            if (i + 1 < starts.size() && starts.get(i + 1) <= this.since)
+                continue;
+
+            scan(new File(this.directory, AccessLog.SEGMENT_PREFIX + starts.get(i) + AccessLog.SEGMENT_SUFFIX));
+            this.segments++;
+        }
+    }
+
+    private void scan(File file) throws IOException {
+        try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+            if (channel.size() < AccessLog.HEADER_SIZE)
+                return;
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            try {
+                if (buffer.getInt(0) != AccessLog.MAGIC || buffer.getInt(8) != AccessLog.RECORD_SIZE)
+                    throw new IOException(file.getName() + " isn't an access log segment");
+
+                int count = (int) ((channel.size() - AccessLog.HEADER_SIZE) / AccessLog.RECORD_SIZE);
+
+                // The segment that's being written to hasn't been truncated yet, its unused records are all zeroes
+                int end = search(buffer, count, Long.MAX_VALUE);
+                int start = Math.max(0, search(buffer, end, this.since) - SEARCH_SLACK);
+
+                for (int i = start; i < end; i++) {
+                    count(buffer, AccessLog.HEADER_SIZE + i * AccessLog.RECORD_SIZE);
+                }
+            } finally {
+                PlatformDependent.freeDirectBuffer(buffer);
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the first record with a timestamp of at least the given one (or an empty record)
+     * @param buffer
+     * @param count
+     * @param timestamp
+     * @return
+     */
+    private static int search(ByteBuffer buffer, int count, long timestamp) {
+        int low = 0;
+        int high = count;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            long value = buffer.getLong(AccessLog.HEADER_SIZE + middle * AccessLog.RECORD_SIZE);
+
+            if (value != 0 && value < timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void count(ByteBuffer buffer, int offset) {
+        if (buffer.getLong(offset) < this.since)
+            return;
+
+        this.events++;
+        this.addresses.increment(buffer.getLong(offset + 8), buffer.getLong(offset + 16));
+
+        int outcome = buffer.get(offset + 25);
+        if (outcome >= 0 && outcome < this.outcomes.length)
+            this.outcomes[outcome]++;
+
+        long host = buffer.getLong(offset + 32);
+        if (host != 0)
+            this.hosts.increment(host, 0);
+
+        long name = buffer.getLong(offset + 40);
+        if (name != 0)
+            this.names.increment(name, 0);
+    }
+
+    public void print(PrintStream out, int top, List<String> by, long time) throws IOException {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        out.println((this.since == 0 ? "All events" : "Events since " + format.format(new Date(this.since))) + ": "
+                + this.events + " in " + this.segments + " segments, scanned in " + time + "ms");
+
+        for (AccessLog.Outcome outcome : AccessLog.Outcome.values()) {
+            if (this.outcomes[outcome.ordinal()] > 0)
+                out.println(String.format("  %-16s %d", outcome.name().toLowerCase(Locale.ENGLISH), this.outcomes[outcome.ordinal()]));
+        }
+
+        if (by.contains("ip")) {
+            out.println();
+            out.println("Top addresses (" + this.addresses.size() + " distinct):");
+            for (int index : this.addresses.top(top)) {
+                out.println(String.format("  %10d  %s", this.addresses.count(index),
+                        formatAddress(this.addresses.first(index), this.addresses.second(index))));
+            }
+        }
+
+        // The names are only read for the hashes that are listed
+        List<int[]> listed = new ArrayList<>();
+        Set<Long> hashes = new HashSet<>();
+        for (String what : asList("name", "host")) {
+            CountTable table = what.equals("name") ? this.names : this.hosts;
+            int[] indices = by.contains(what) ? table.top(top) : new int[0];
+            listed.add(indices);
+
+            for (int index : indices) {
+                hashes.add(table.first(index));
+            }
+        }
+        Map<Long, String> names = readNames(hashes);
+
+        if (by.contains("name"))
+            printNames(out, "Top player names", this.names, listed.get(0), names);
+        if (by.contains("host"))
+            printNames(out, "Top hostnames", this.hosts, listed.get(1), names);
+    }
+
+    private static void printNames(PrintStream out, String title, CountTable table, int[] indices, Map<Long, String> names) {
+        out.println();
+        out.println(title + " (" + table.size() + " distinct):");
+        for (int index : indices) {
+            String name = names.get(table.first(index));
+            out.println(String.format("  %10d  %s", table.count(index), name != null ? name : "#" + Long.toHexString(table.first(index))));
+        }
+    }
+
+    private Map<Long, String> readNames(Set<Long> hashes) throws IOException {
+        Map<Long, String> names = new HashMap<>();
+        if (hashes.isEmpty())
+            return names;
+
+        File[] files = this.directory.listFiles();
+        if (files == null)
+            return names;
+
+        for (File file : files) {
+            if (!file.getName().endsWith(AccessLog.NAMES_SUFFIX))
+                continue;
+
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int tab = line.indexOf('\t');
+                    if (tab == -1)
+                        continue;
+
+                    long hash = Long.parseUnsignedLong(line.substring(0, tab), 16);
+                    if (hashes.contains(hash))
+                        names.put(hash, line.substring(tab + 1));
+                }
+            } catch (NumberFormatException e) {
+                // A line that got cut off, the rest of the file is still fine
+            }
+
+            if (names.size() == hashes.size())
+                break;
+        }
+        return names;
+    }
+
+    /**
+     * Returns the start times of all segments in the given directory, oldest first
+     * @param directory
+     * @return
+     */
+    public static List<Long> listSegments(File directory) {
+        List<Long> starts = new ArrayList<>();
+
+        File[] files = directory.listFiles();
+        if (files == null)
+            return starts;
+
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.startsWith(AccessLog.SEGMENT_PREFIX) || !name.endsWith(AccessLog.SEGMENT_SUFFIX))
+                continue;
+
+            try {
+                starts.add(Long.parseLong(name.substring(AccessLog.SEGMENT_PREFIX.length(), name.length() - AccessLog.SEGMENT_SUFFIX.length())));
+            } catch (NumberFormatException e) {
+                // Not one of ours
+            }
+        }
+
+        Collections.sort(starts);
+        return starts;
+    }
+
+    /**
+     * Parses durations like 90s, 30m, 1h or 7d into milliseconds, plain numbers are minutes
+     * @param duration
+     * @return
+     */
+    public static long parseDuration(String duration) {
+        duration = duration.trim().toLowerCase(Locale.ENGLISH);
+        if (duration.isEmpty())
+            return 0;
+
+        TimeUnit unit;
+        switch (duration.charAt(duration.length() - 1)) {
+            case 's':
+                unit = TimeUnit.SECONDS;
+                break;
+            case 'm':
+                unit = TimeUnit.MINUTES;
+                break;
+            case 'h':
+                unit = TimeUnit.HOURS;
+                break;
+            case 'd':
+                unit = TimeUnit.DAYS;
+                break;
+            default:
+                return TimeUnit.MINUTES.toMillis(Long.parseLong(duration));
+        }
+        return unit.toMillis(Long.parseLong(duration.substring(0, duration.length() - 1)));
+    }
+
+    private static String formatAddress(long high, long low) {
+        if (high == 0 && (low >>> 32) == 0xFFFF)
+            return ((low >>> 24) & 0xFF) + "." + ((low >>> 16) & 0xFF) + "." + ((low >>> 8) & 0xFF) + "." + (low & 0xFF);
+
+        try {
+            return InetAddress.getByAddress(ByteBuffer.allocate(16).putLong(high).putLong(low).array()).getHostAddress();
+        } catch (UnknownHostException e) {
+            // Never thrown for 16 bytes
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Counts keys of two longs in an open addressing table, which grows when it's half full
+     */
+    private static class CountTable {
+
+        private long[] firsts = new long[1024];
+        private long[] seconds = new long[1024];
+        private long[] counts = new long[1024];
+        private int size;
+
+        private void increment(long first, long second) {
+            int mask = this.counts.length - 1;
+            int index = mix(first * 31 + second) & mask;
+
+            while (this.counts[index] != 0) {
+                if (this.firsts[index] == first && this.seconds[index] == second) {
+                    this.counts[index]++;
+                    return;
+                }
+                index = (index + 1) & mask;
+            }
+
+            this.firsts[index] = first;
+            this.seconds[index] = second;
+            this.counts[index] = 1;
+
+            if (++this.size > this.counts.length / 2)
+                grow();
+        }
+
+        private void grow() {
+            long[] firsts = this.firsts;
+            long[] seconds = this.seconds;
+            long[] counts = this.counts;
+
+            this.firsts = new long[counts.length * 2];
+            this.seconds = new long[counts.length * 2];
+            this.counts = new long[counts.length * 2];
+            int mask = this.counts.length - 1;
+
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 0)
+                    continue;
+
+                int index = mix(firsts[i] * 31 + seconds[i]) & mask;
+                while (this.counts[index] != 0)
+                    index = (index + 1) & mask;
+
+                this.firsts[index] = firsts[i];
+                this.seconds[index] = seconds[i];
+                this.counts[index] = counts[i];
+            }
+        }
+
+        /**
+         * Returns the indices of the entries with the highest counts, highest first
+         * @param top
+         * @return
+         */
+        private int[] top(int top) {
+            PriorityQueue<Integer> queue = new PriorityQueue<>(top + 1, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Long.compare(counts[a], counts[b]);
+                }
+            });
+
+            for (int i = 0; i < this.counts.length; i++) {
+                if (this.counts[i] == 0)
+                    continue;
+
+                if (queue.size() < top) {
+                    queue.add(i);
+                } else if (top > 0 && this.counts[i] > this.counts[queue.peek()]) {
+                    queue.poll();
+                    queue.add(i);
+                }
+            }
+
+            int[] indices = new int[queue.size()];
+            for (int i = indices.length - 1; i >= 0; i--) {
+                indices[i] = queue.poll();
+            }
+            return indices;
+        }
+
+        private long first(int index) {
+            return this.firsts[index];
+        }
+
+        private long second(int index) {
+            return this.seconds[index];
+        }
+
+        private long count(int index) {
+            return this.counts[index];
+        }
+
+        private int size() {
+            return this.size;
+        }
+
+        private static int mix(long key) {
+            key ^= key >>> 33;
+            key *= 0xFF51AFD7ED558CCDL;
+            key ^= key >>> 33;
+            return (int) key;
+        }
+    }
+}
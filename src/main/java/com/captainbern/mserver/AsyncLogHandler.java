@@ -0,0 +1,274 @@
+package com.captainbern.mserver;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Hands log records over to a single writer thread, so the threads that log (the event loops in
+ * particular) never wait for the console or the log file.
+ *
+ * Records are passed through a bounded, lock-free ring buffer which may be written to by any amount
+ * of threads. The writer drains it in batches, publishes every record to the wrapped handlers and
+ * only flushes them once a batch is done (or once the flush interval has passed under constant load).
+ * What happens when the buffer is full is decided by the {@link OverflowPolicy}.
+ */
+public class AsyncLogHandler extends Handler {
+
+    /**
+     * The amount of records the writer publishes before it flushes the handlers, at the latest
+     */
+    private static final int MAX_BATCH_SIZE = 1024;
+
+    /**
+     * With {@link OverflowPolicy#SAMPLE}, one out of this many overflowing records is kept
+     */
+    private static final int SAMPLE_RATE = 100;
+
+    public static enum OverflowPolicy {
+        /**
+         * Wait until the writer made room for the record
+         */
+        BLOCK,
+        /**
+         * Drop the record
+         */
+        DROP,
+        /**
+         * Drop most records, but wait for room for one out of every hundred, so a flood still
+         * leaves a trace in the log
+         */
+        SAMPLE;
+
+        public static OverflowPolicy fromString(String policy) {
+            try {
+                return valueOf(policy.trim().toUpperCase(Locale.ENGLISH));
+            } catch (IllegalArgumentException e) {
+                return BLOCK;
+            }
+        }
+    }
+
+    private final List<Handler> handlers = new CopyOnWriteArrayList<>();
+
+    private final OverflowPolicy overflowPolicy;
+    private final long flushInterval;
+
+    // The ring buffer: a slot may be written once its sequence equals the producer's position,
+    // and read once it equals the position + 1
+    private final AtomicReferenceArray<LogRecord> slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private long head; // Only touched by the writer
+
+    private final AtomicLong overflowed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final Thread writer;
+    private volatile boolean writerParked;
+    private volatile boolean running = true;
+
+    /**
+     * @param capacity The amount of records that can be queued, rounded up to a power of two
+     * @param overflowPolicy What to do with records once the queue is full
+     * @param flushInterval The maximum amount of milliseconds between two flushes
+     */
+    public AsyncLogHandler(int capacity, OverflowPolicy overflowPolicy, long flushInterval) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+
+        this.slots = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            this.sequences.set(i, i);
+        }
+        this.mask = size - 1;
+
+        this.overflowPolicy = overflowPolicy;
+        this.flushInterval = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushInterval));
+
+        this.writer = new Thread("LogWriter") {
+            @Override
+            public void run() {
+                drainLoop();
+            }
+        };
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public void addHandler(Handler handler) {
+        this.handlers.add(handler);
+    }
+
+    /**
+     * Returns the amount of records that were dropped because the queue was full
+     * @return
+     */
+    public long getDroppedRecords() {
+        return this.dropped.get();
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (!isLoggable(record))
+            return;
+
+        // Records logged by the handlers themselves (or after closing) can't be queued
+        if (!this.running || Thread.currentThread() == this.writer) {
+            publishDirectly(record);
+            return;
+        }
+
+        if (!offer(record)) {
+            if (this.overflowPolicy == OverflowPolicy.DROP || (this.overflowPolicy == OverflowPolicy.SAMPLE
+                    && this.overflowed.getAndIncrement() % SAMPLE_RATE != 0)) {
+                this.dropped.incrementAndGet();
+                return;
+            }
+
+            // Blocking, or one of the records that are kept when sampling
+            while (!offer(record)) {
+                if (!this.running) {
+                    publishDirectly(record);
+                    return;
+                }
+                wakeWriter();
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+            }
+        }
+
+        if (this.writerParked)
+            wakeWriter();
+    }
+
+    @Override
+    public void flush() {
+        // The writer flushes by itself
+    }
+
+    @Override
+    public void close() throws SecurityException {
+        this.running = false;
+        wakeWriter();
+
+        try {
+            this.writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (Handler handler : this.handlers) {
+            handler.flush();
+            handler.close();
+        }
+    }
+
+    private boolean offer(LogRecord record) {
+        long position = this.tail.get();
+
+        while (true) {
+            int index = (int) position & this.mask;
+            long difference = this.sequences.get(index) - position;
+
+            if (difference == 0) {
+                if (this.tail.compareAndSet(position, position + 1)) {
+                    this.slots.lazySet(index, record);
+                    // A full barrier, so the writer can't be seen as running while it's about to park
+                    this.sequences.set(index, position + 1);
+                    return true;
+                }
+                position = this.tail.get();
+            } else if (difference < 0) {
+                // The writer hasn't gotten to this slot yet, so the buffer is full
+                return false;
+            } else {
+                // Another thread claimed this position
+                position = this.tail.get();
+            }
+        }
+    }
+
+    private LogRecord poll() {
+        int index = (int) this.head & this.mask;
+        if (this.sequences.get(index) != this.head + 1)
+            return null;
+
+        LogRecord record = this.slots.get(index);
+        this.slots.lazySet(index, null);
+        this.sequences.lazySet(index, this.head + this.mask + 1);
+        this.head++;
+        return record;
+    }
+
+    private void wakeWriter() {
+        LockSupport.unpark(this.writer);
+    }
+
+    private void drainLoop() {
+        long lastFlush = System.nanoTime();
+        long lastDropped = 0;
+        boolean dirty = false;
+
+        while (true) {
+            int batch = 0;
+            LogRecord record;
+            while (batch < MAX_BATCH_SIZE && (record = poll()) != null) {
+                publishDirectly(record);
+                batch++;
+            }
+
+            long now = System.nanoTime();
+            dirty |= batch > 0;
+
+            // Flush once the queue is drained, or every interval when it never is
+            if (dirty && (batch < MAX_BATCH_SIZE || now - lastFlush >= this.flushInterval)) {
+                long dropped = this.dropped.get();
+                if (dropped != lastDropped) {
+                    publishDirectly(new LogRecord(Level.WARNING, "Dropped " + (dropped - lastDropped)
+                            + " log records because the log queue was full"));
+                    lastDropped = dropped;
+                }
+
+                flushHandlers();
+                lastFlush = now;
+                dirty = false;
+            }
+
+            if (batch == 0) {
+                if (!this.running)
+                    break;
+
+                this.writerParked = true;
+                // Check again, a record might have been queued before the flag was visible
+                if (this.sequences.get((int) this.head & this.mask) != this.head + 1)
+                    LockSupport.parkNanos(this, this.flushInterval);
+                this.writerParked = false;
+            }
+        }
+    }
+
+    private void publishDirectly(LogRecord record) {
+        for (Handler handler : this.handlers) {
+            try {
+                handler.publish(record);
+            } catch (RuntimeException e) {
+                reportError(null, e, 0);
+            }
+        }
+    }
+
+    private void flushHandlers() {
+        for (Handler handler : this.handlers) {
+            handler.flush();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.captainbern.mserver;
+
+import io.netty.util.AttributeKey;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An address the server listens on, optionally tied to a status profile. Parsed from entries like
+ * "0.0.0.0:25566", "[::1]:25567" or ":25568=example", where the part after the '=' is the name of the
+ * status profile all connections to that address get.
+ */
+public class BindAddress {
+
+    /**
+     * The name of the status profile of a listening channel, read by the PacketHandler through the channel's parent
+     */
+    public static final AttributeKey<String> PROFILE = AttributeKey.valueOf("status-profile");
+
+    private final InetSocketAddress address;
+    private final String profile;
+
+    public BindAddress(InetSocketAddress address, String profile) {
+        this.address = address;
+        this.profile = profile;
+    }
+
+    public InetSocketAddress getAddress() {
+        return this.address;
+    }
+
+    /**
+     * Returns the name of the status profile of this address, or null if the profile is picked per handshake
+     * @return
+     */
+    public String getProfile() {
+        return this.profile;
+    }
+
+    @Override
+    public String toString() {
+        return this.profile == null ? this.address.toString() : this.address + " (" + this.profile + ")";
+    }
+
+    /**
+     * Parses a comma separated list of addresses
+     * @param addresses
+     * @return
+     * @throws IllegalArgumentException If any of the addresses is invalid
+     */
+    public static List<BindAddress> parseList(String addresses) {
+        List<BindAddress> list = new ArrayList<>();
+
+        for (String address : addresses.split(",")) {
+            if (!address.trim().isEmpty())
+                list.add(parse(address.trim()));
+        }
+
+        return list;
+    }
+
+    /**
+     * Parses a single address, an empty host binds to all interfaces
+     * @param address
+     * @return
+     * @throws IllegalArgumentException If the address is invalid
+     */
+    public static BindAddress parse(String address) {
+        String profile = null;
+
+        int equals = address.indexOf('=');
+        if (equals != -1) {
+            profile = address.substring(equals + 1).trim();
+            address = address.substring(0, equals).trim();
+        }
+
+        int colon = address.lastIndexOf(':');
+        if (colon == -1 || address.indexOf(']', colon) != -1)
+            throw new IllegalArgumentException("Missing port in bind address: " + address);
+
+        String host = address.substring(0, colon);
+        if (host.startsWith("[") && host.endsWith("]"))
+            host = host.substring(1, host.length() - 1);
+
+        int port;
+        try {
+            port = Integer.parseInt(address.substring(colon + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid port in bind address: " + address);
+        }
+
+        InetSocketAddress socketAddress = host.isEmpty() ? new InetSocketAddress(port) : new InetSocketAddress(host, port);
+        return new BindAddress(socketAddress, profile == null || profile.isEmpty() ? null : profile);
+    }
+}
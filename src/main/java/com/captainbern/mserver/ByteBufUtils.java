@@ -1,12 +1,67 @@
 package com.captainbern.mserver;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 
 import java.nio.charset.StandardCharsets;
 
 public class ByteBufUtils {
 
+    /**
+     * The size of a VarInt, indexed by the amount of leading zeros of the value
+     */
+    private static final int[] VARINT_SIZES = new int[33];
+
+    static {
+        for (int i = 0; i <= 32; i++) {
+            VARINT_SIZES[i] = Math.max(1, (31 - i) / 7 + 1);
+        }
+    }
+
     public static int readVarInt(ByteBuf byteBuf) {
+        int index = byteBuf.readerIndex();
+
+        // Not enough bytes to take the fast path, fall back to reading byte by byte
+        if (byteBuf.writerIndex() - index < 5)
+            return readVarIntSlow(byteBuf);
+
+        int in = byteBuf.getByte(index);
+        if (in >= 0) {
+            byteBuf.readerIndex(index + 1);
+            return in;
+        }
+        int out = in & 0x7F;
+
+        in = byteBuf.getByte(index + 1);
+        if (in >= 0) {
+            byteBuf.readerIndex(index + 2);
+            return out | in << 7;
+        }
+        out |= (in & 0x7F) << 7;
+
+        in = byteBuf.getByte(index + 2);
+        if (in >= 0) {
+            byteBuf.readerIndex(index + 3);
+            return out | in << 14;
+        }
+        out |= (in & 0x7F) << 14;
+
+        in = byteBuf.getByte(index + 3);
+        if (in >= 0) {
+            byteBuf.readerIndex(index + 4);
+            return out | in << 21;
+        }
+        out |= (in & 0x7F) << 21;
+
+        in = byteBuf.getByte(index + 4);
+        if ((in & 0xF0) != 0) {
+            throw new IllegalStateException("Integer is bigger than maximum allowed!");
+        }
+        byteBuf.readerIndex(index + 5);
+        return out | in << 28;
+    }
+
+    private static int readVarIntSlow(ByteBuf byteBuf) {
         int out = 0;
         int bytes = 0;
         byte in;
@@ -24,29 +79,118 @@ public class ByteBufUtils {
     }
 
     public static void writeVarInt(ByteBuf byteBuf, int varInt) {
-        int part;
-        while (true) {
-            part = varInt & 0x7F;
-            varInt >>>= 7;
-            if (varInt != 0) {
-                part |= 0x80;
-            }
-            byteBuf.writeByte(part);
-            if (varInt == 0) {
-                break;
-            }
+        if ((varInt & ~0x7F) == 0) {
+            byteBuf.writeByte(varInt);
+        } else if ((varInt & ~0x3FFF) == 0) {
+            byteBuf.writeShort((varInt & 0x7F | 0x80) << 8 | varInt >>> 7);
+        } else if ((varInt & ~0x1FFFFF) == 0) {
+            byteBuf.writeMedium((varInt & 0x7F | 0x80) << 16 | (varInt >>> 7 & 0x7F | 0x80) << 8 | varInt >>> 14);
+        } else if ((varInt & ~0xFFFFFFF) == 0) {
+            byteBuf.writeInt((varInt & 0x7F | 0x80) << 24 | (varInt >>> 7 & 0x7F | 0x80) << 16
+                    | (varInt >>> 14 & 0x7F | 0x80) << 8 | varInt >>> 21);
+        } else {
+            byteBuf.writeInt((varInt & 0x7F | 0x80) << 24 | (varInt >>> 7 & 0x7F | 0x80) << 16
+                    | (varInt >>> 14 & 0x7F | 0x80) << 8 | (varInt >>> 21 & 0x7F | 0x80));
+            byteBuf.writeByte(varInt >>> 28);
         }
     }
 
+    public static int getVarIntSize(int varInt) {
+        return VARINT_SIZES[Integer.numberOfLeadingZeros(varInt)];
+    }
+
     public static String readUTF(ByteBuf byteBuf) {
-        byte[] bytes = new byte[readVarInt(byteBuf)];
-        byteBuf.readBytes(bytes);
-        return new String(bytes, StandardCharsets.UTF_8);
+        int length = readVarInt(byteBuf);
+        String utf = byteBuf.toString(byteBuf.readerIndex(), length, StandardCharsets.UTF_8);
+        byteBuf.skipBytes(length);
+        return utf;
     }
 
+    /**
+     * Writes the given String as a VarInt length-prefixed UTF-8 string, encoding the characters
+     * straight into the buffer
+     * @param byteBuf
+     * @param utf
+     */
     public static void writeUTF(ByteBuf byteBuf, String utf) {
-        byte[] data = utf.getBytes(StandardCharsets.UTF_8);
-        writeVarInt(byteBuf, utf.length());
-        byteBuf.writeBytes(data);
+        int length = getUTFLength(utf);
+        writeVarInt(byteBuf, length);
+        byteBuf.ensureWritable(length);
+
+        int index = byteBuf.writerIndex();
+        int chars = utf.length();
+
+        for (int i = 0; i < chars; i++) {
+            char c = utf.charAt(i);
+            if (c < 0x80) {
+                byteBuf.setByte(index++, c);
+            } else if (c < 0x800) {
+                byteBuf.setByte(index++, 0xC0 | c >> 6);
+                byteBuf.setByte(index++, 0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < chars && Character.isLowSurrogate(utf.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, utf.charAt(++i));
+                byteBuf.setByte(index++, 0xF0 | codePoint >> 18);
+                byteBuf.setByte(index++, 0x80 | codePoint >> 12 & 0x3F);
+                byteBuf.setByte(index++, 0x80 | codePoint >> 6 & 0x3F);
+                byteBuf.setByte(index++, 0x80 | codePoint & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate, encoded as '?' just like String#getBytes does
+                byteBuf.setByte(index++, '?');
+            } else {
+                byteBuf.setByte(index++, 0xE0 | c >> 12);
+                byteBuf.setByte(index++, 0x80 | c >> 6 & 0x3F);
+                byteBuf.setByte(index++, 0x80 | c & 0x3F);
+            }
+        }
+
+        byteBuf.writerIndex(index);
+    }
+
+    /**
+     * Returns the amount of bytes the given String takes up when encoded as UTF-8
+     * @param utf
+     * @return
+     */
+    public static int getUTFLength(String utf) {
+        int chars = utf.length();
+        int length = chars;
+
+        for (int i = 0; i < chars; i++) {
+            char c = utf.charAt(i);
+            if (c < 0x80) {
+                continue;
+            }
+
+            if (c < 0x800) {
+                length += 1;
+            } else if (Character.isHighSurrogate(c) && i + 1 < chars && Character.isLowSurrogate(utf.charAt(i + 1))) {
+                // 2 chars, 4 bytes
+                length += 2;
+                i++;
+            } else if (!Character.isSurrogate(c)) {
+                length += 2;
+            }
+        }
+
+        return length;
+    }
+
+    /**
+     * Creates a packet with the given id and a single String, framed (prefixed with its length) already so it can
+     * be written as is
+     * @param allocator
+     * @param id
+     * @param utf
+     * @return
+     */
+    public static ByteBuf createStringPacket(ByteBufAllocator allocator, int id, String utf) {
+        int length = getUTFLength(utf);
+        int frameLength = getVarIntSize(id) + getVarIntSize(length) + length;
+
+        ByteBuf packet = allocator.buffer(getVarIntSize(frameLength) + frameLength);
+        writeVarInt(packet, frameLength);
+        writeVarInt(packet, id);
+        writeUTF(packet, utf);
+        return packet;
     }
 }
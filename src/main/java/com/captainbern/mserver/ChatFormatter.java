@@ -0,0 +1,233 @@
+package com.captainbern.mserver;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Turns the messages from the properties (the MOTD and the kick messages) into chat components.
+ *
+ * A message may use the legacy formatting codes, prefixed with either an ampersand or the section sign
+ * ({@code &cMaintenance &lahead}), and a simple markup of tags ({@code <red>Maintenance <bold>ahead</bold>}).
+ * The tags are the names of the colors and formats of the chat components (red, dark_aqua, bold, italic,
+ * underlined, strikethrough, obfuscated) and reset. A closing tag turns its format (or the color) off again.
+ * Like in the game, a legacy color code turns off all formats as well. Anything that isn't a code or a known
+ * tag is kept as it is, so {@code <3} stays {@code <3}. A message that is a chat component (in JSON) already
+ * is used as is.
+ *
+ * This is done only once for every message, when it's loaded. The server only ever sends the encoded result.
+ */
+public class ChatFormatter {
+
+    private static final String CODES = "0123456789abcdefklmnor";
+
+    private static final String[] COLORS = {
+            "black", "dark_blue", "dark_green", "dark_aqua", "dark_red", "dark_purple", "gold", "gray",
+            "dark_gray", "blue", "green", "aqua", "red", "light_purple", "yellow", "white"
+    };
+
+    /**
+     * In the order of the codes k - o
+     */
+    private static final String[] FORMATS = {"obfuscated", "bold", "strikethrough", "underlined", "italic"};
+
+    /**
+     * Tags longer than this can't be known, so there's no need to look any further for the end of one
+     */
+    private static final int MAX_TAG_LENGTH = 16;
+
+    /**
+     * Returns the chat component of the given message
+     * @param message
+     * @return
+     */
+    public static JSONObject toComponent(String message) {
+        JSONObject component = parseJson(message);
+        if (component != null)
+            return component;
+
+        List<JSONObject> segments = parse(message);
+
+        // Plain text stays as simple as it was
+        if (segments.isEmpty())
+            return new JSONObject().put("text", "");
+        if (segments.size() == 1 && segments.get(0).length() == 1)
+            return segments.get(0);
+
+        return new JSONObject().put("text", "").put("extra", new JSONArray(segments));
+    }
+
+    /**
+     * Returns the given message without any formatting, for the clients that can't handle it
+     * @param message
+     * @return
+     */
+    public static String toPlainText(String message) {
+        StringBuilder builder = new StringBuilder(message.length());
+
+        JSONObject component = parseJson(message);
+        if (component != null) {
+            appendText(component, builder);
+        } else {
+            for (JSONObject segment : parse(message)) {
+                builder.append(segment.getString("text"));
+            }
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Returns the message as chat component if it's one already, or null. The JSON parser is lenient (it takes
+     * "[Maintenance]" for an array with a single string), so a message only counts as JSON if it starts like a
+     * component does: an object or an array with a quoted key, string or an object first.
+     */
+    private static JSONObject parseJson(String message) {
+        String trimmed = message.trim();
+
+        try {
+            if (trimmed.startsWith("{\"") && trimmed.endsWith("}"))
+                return new JSONObject(trimmed);
+            if ((trimmed.startsWith("[\"") || trimmed.startsWith("[{")) && trimmed.endsWith("]"))
+                return new JSONObject().put("text", "").put("extra", new JSONArray(trimmed));
+        } catch (JSONException e) {
+            // Just text that happens to look like JSON
+        }
+        return null;
+    }
+
+    private static void appendText(Object component, StringBuilder builder) {
+        if (component instanceof JSONObject) {
+            JSONObject object = (JSONObject) component;
+            builder.append(toPlainText(object.optString("text", "")));
+            appendText(object.optJSONArray("extra"), builder);
+        } else if (component instanceof JSONArray) {
+            JSONArray array = (JSONArray) component;
+            for (int i = 0; i < array.length(); i++) {
+                appendText(array.get(i), builder);
+            }
+        } else if (component instanceof String) {
+            builder.append(toPlainText((String) component));
+        }
+    }
+
+    /**
+     * Splits the message into text components which each have a single style
+     */
+    private static List<JSONObject> parse(String message) {
+        List<JSONObject> segments = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+
+        String color = null;
+        boolean[] formats = new boolean[FORMATS.length];
+
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+
+            // A legacy code
+            if ((c == '&' || c == '\u00A7') && i + 1 < message.length()) {
+                int code = CODES.indexOf(Character.toLowerCase(message.charAt(i + 1)));
+                if (code >= 0) {
+                    flush(segments, text, color, formats);
+                    i++;
+
+                    if (code < COLORS.length) {
+                        color = COLORS[code];
+                        formats = new boolean[FORMATS.length];
+                    } else if (code < COLORS.length + FORMATS.length) {
+                        formats[code - COLORS.length] = true;
+                    } else {
+                        color = null;
+                        formats = new boolean[FORMATS.length];
+                    }
+                    continue;
+                }
+            }
+
+            // A tag
+            if (c == '<') {
+                int end = message.indexOf('>', i);
+                if (end > i + 1 && end - i <= MAX_TAG_LENGTH) {
+                    String tag = message.substring(i + 1, end).toLowerCase(Locale.ENGLISH);
+                    boolean closing = tag.startsWith("/");
+                    if (closing)
+                        tag = tag.substring(1);
+
+                    int colorIndex = indexOf(COLORS, tag);
+                    int formatIndex = indexOf(FORMATS, tag);
+
+                    if (colorIndex >= 0 || formatIndex >= 0 || (!closing && tag.equals("reset"))) {
+                        flush(segments, text, color, formats);
+                        i = end;
+
+                        if (colorIndex >= 0) {
+                            color = closing ? null : COLORS[colorIndex];
+                        } else if (formatIndex >= 0) {
+                            formats[formatIndex] = !closing;
+                        } else {
+                            color = null;
+                            formats = new boolean[FORMATS.length];
+                        }
+                        continue;
+                    }
+                }
+            }
+
+            text.append(c);
+        }
+
+        flush(segments, text, color, formats);
+        return segments;
+    }
+
+    /**
+     * Adds the text so far as a component with the given style, if there is any text
+     */
+    private static void flush(List<JSONObject> segments, StringBuilder text, String color, boolean[] formats) {
+        if (text.length() == 0)
+            return;
+
+        // Codes that don't change anything don't need a component of their own
+        if (!segments.isEmpty() && hasStyle(segments.get(segments.size() - 1), color, formats)) {
+            JSONObject last = segments.get(segments.size() - 1);
+            last.put("text", last.getString("text") + text);
+            text.setLength(0);
+            return;
+        }
+
+        JSONObject segment = new JSONObject();
+        segment.put("text", text.toString());
+        if (color != null)
+            segment.put("color", color);
+        for (int i = 0; i < FORMATS.length; i++) {
+            if (formats[i])
+                segment.put(FORMATS[i], true);
+        }
+
+        segments.add(segment);
+        text.setLength(0);
+    }
+
+    private static boolean hasStyle(JSONObject segment, String color, boolean[] formats) {
+        if (color == null ? segment.has("color") : !color.equals(segment.optString("color")))
+            return false;
+
+        for (int i = 0; i < FORMATS.length; i++) {
+            if (segment.optBoolean(FORMATS[i]) != formats[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static int indexOf(String[] names, String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name))
+                return i;
+        }
+        return -1;
+    }
+}
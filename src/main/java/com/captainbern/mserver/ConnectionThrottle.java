@@ -0,0 +1,187 @@
+package com.captainbern.mserver;
+
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.concurrent.EventExecutor;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the rate at which a single address (or IPv6 /64 subnet) can open connections. Abusive
+ * connections are closed before they reach any of the other handlers.
+ *
+ * Every address has a token bucket, kept as a single "theoretical arrival time" which is updated
+ * with a CAS, so checking a connection never takes a lock. Buckets that have been refilled
+ * completely are evicted periodically, and once too many addresses are being tracked, new
+ * addresses share one overflow bucket, so memory stays bounded no matter how many sources there are.
+ * The overflow bucket has a (much larger) rate of its own, so while a flood from many sources fills
+ * up the addresses, new clients are still let in rather than being throttled like a single address.
+ */
+@ChannelHandler.Sharable
+public class ConnectionThrottle extends ChannelInboundHandlerAdapter {
+
+    private static final long SWEEP_INTERVAL = TimeUnit.SECONDS.toNanos(10);
+
+    private final ConcurrentHashMap<InetAddress, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong overflowBucket;
+
+    private final long interval;
+    private final long burstWindow;
+    private final int maxAddresses;
+
+    private final long overflowInterval;
+    private final long overflowBurstWindow;
+
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong accepted = new AtomicLong();
+    private long lastRejected;
+
+    /**
+     * @param rate The amount of connections an address may open per second
+     * @param burst The amount of connections an address may open at once
+     * @param maxAddresses The maximum amount of addresses that are tracked individually
+     * @param overflowRate The amount of connections per second all other addresses may open together, and at once
+     */
+    public ConnectionThrottle(double rate, int burst, int maxAddresses, double overflowRate) {
+        this.interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        this.burstWindow = this.interval * Math.max(0, burst - 1);
+        this.maxAddresses = maxAddresses;
+
+        // Never stricter than a single address
+        overflowRate = Math.max(rate, overflowRate);
+        this.overflowInterval = (long) (TimeUnit.SECONDS.toNanos(1) / overflowRate);
+        this.overflowBurstWindow = this.overflowInterval * Math.max(Math.max(0, burst - 1), (long) overflowRate - 1);
+
+        // Full, like the bucket of a new address
+        this.overflowBucket = new AtomicLong(System.nanoTime() - this.overflowBurstWindow);
+    }
+
+    /**
+     * Periodically evicts the buckets that are full again and logs how many connections got rejected
+     * @param executor
+     */
+    public void startSweeping(EventExecutor executor) {
+        executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                sweep();
+            }
+        }, SWEEP_INTERVAL, SWEEP_INTERVAL, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        InetAddress address = ((InetSocketAddress) ctx.channel().remoteAddress()).getAddress();
+
+        if (!tryAcquire(address)) {
+            this.rejected.incrementAndGet();
+            ctx.close();
+            return;
+        }
+
+        this.accepted.incrementAndGet();
+
+        // Only new connections have to be checked
+        ctx.pipeline().remove(this);
+        ctx.fireChannelActive();
+    }
+
+    public boolean tryAcquire(InetAddress address) {
+        InetAddress key = getKey(address);
+        AtomicLong bucket = this.buckets.get(key);
+
+        if (bucket == null) {
+            if (this.buckets.size() >= this.maxAddresses)
+                return tryAcquire(this.overflowBucket, this.overflowInterval, this.overflowBurstWindow);
+
+            bucket = new AtomicLong(nanoTime() - this.burstWindow);
+            AtomicLong existing = this.buckets.putIfAbsent(key, bucket);
+            if (existing != null)
+                bucket = existing;
+        }
+
+        return tryAcquire(bucket, this.interval, this.burstWindow);
+    }
+
+    /**
+     * The arrival time starts (and is never less than) a burst window before now, so once it's past now
+     * the whole burst has been used up
+     */
+    private boolean tryAcquire(AtomicLong bucket, long interval, long burstWindow) {
+        while (true) {
+            long now = nanoTime();
+            long arrival = bucket.get();
+
+            // The bucket is empty, reject
+            if (arrival - now > 0)
+                return false;
+
+            long next = Math.max(arrival, now - burstWindow) + interval;
+            if (bucket.compareAndSet(arrival, next))
+                return true;
+        }
+    }
+
+    public long getRejectedConnections() {
+        return this.rejected.get();
+    }
+
+    public long getAcceptedConnections() {
+        return this.accepted.get();
+    }
+
+    public int getTrackedAddresses() {
+        return this.buckets.size();
+    }
+
+    /**
+     * The current time, in nanoseconds
+     * @return
+     */
+    protected long nanoTime() {
+        return System.nanoTime();
+    }
+
+    void sweep() {
+        long now = nanoTime();
+
+        Iterator<Map.Entry<InetAddress, AtomicLong>> iterator = this.buckets.entrySet().iterator();
+        while (iterator.hasNext()) {
+            // The bucket is full again, it's no different from a new one
+            if (iterator.next().getValue().get() - now <= -this.burstWindow)
+                iterator.remove();
+        }
+
+        long rejected = this.rejected.get();
+        if (rejected != this.lastRejected) {
+            MaintenanceServer.LOGGER.info("Throttled " + (rejected - this.lastRejected) + " connections in the last "
+                    + TimeUnit.NANOSECONDS.toSeconds(SWEEP_INTERVAL) + " seconds (" + this.buckets.size() + " addresses tracked)");
+            this.lastRejected = rejected;
+        }
+    }
+
+    private static InetAddress getKey(InetAddress address) {
+        byte[] bytes = address.getAddress();
+        if (bytes.length == 4)
+            return address;
+
+        // A single IPv6 client usually has a whole /64 at its disposal
+        for (int i = 8; i < bytes.length; i++) {
+            bytes[i] = 0;
+        }
+
+        try {
+            return InetAddress.getByAddress(bytes);
+        } catch (UnknownHostException e) {
+            return address;
+        }
+    }
+}
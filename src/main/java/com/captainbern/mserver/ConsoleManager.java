@@ -26,8 +26,10 @@ package com.captainbern.mserver;
 import jline.console.ConsoleReader;
 
 import java.io.*;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.logging.*;
 
 /**
@@ -40,20 +42,30 @@ public class ConsoleManager {
     private static final Logger logger = Logger.getLogger("");
 
     private final MaintenanceServer server;
+    private final AsyncLogHandler asyncHandler;
 
     private ConsoleReader consoleReader;
 
     private boolean running = true;
     private boolean jLine = false;
 
-    public ConsoleManager(MaintenanceServer server) {
+    /**
+     * @param server
+     * @param queueSize The amount of log records that can be waiting to be written
+     * @param overflowPolicy What to do with log records when the queue is full
+     * @param flushInterval The maximum amount of milliseconds between two flushes
+     */
+    public ConsoleManager(MaintenanceServer server, int queueSize, AsyncLogHandler.OverflowPolicy overflowPolicy, long flushInterval) {
         this.server = server;
 
         for (Handler handler : logger.getHandlers()) {
             logger.removeHandler(handler);
         }
 
-        logger.addHandler(new FancyConsoleHandler());
+        // All output goes through a single writer thread, so logging never blocks on I/O
+        this.asyncHandler = new AsyncLogHandler(queueSize, overflowPolicy, flushInterval);
+        this.asyncHandler.addHandler(new FancyConsoleHandler());
+        logger.addHandler(this.asyncHandler);
 
         try {
             this.consoleReader = new ConsoleReader();
@@ -80,8 +92,8 @@ public class ConsoleManager {
             logger.warning("Could not create log folder: " + parent);
         }
         Handler fileHandler = new RotatingFileHandler(logfile);
-        fileHandler.setFormatter(new DateOutputFormatter(FILE_DATE));
-        logger.addHandler(fileHandler);
+        fileHandler.setFormatter(new LogFormatter(FILE_DATE));
+        this.asyncHandler.addHandler(fileHandler);
     }
 
     public void stop() {
@@ -104,7 +116,11 @@ public class ConsoleManager {
                         command = consoleReader.readLine();
                     }
 
-                    if (command == null || command.trim().length() == 0)
+                    // The end of the input (e.g. when running without a terminal), there won't be any commands
+                    if (command == null)
+                        break;
+
+                    if (command.trim().length() == 0)
                         continue;
 
                     server.handleCommand(command.trim());
@@ -136,12 +152,22 @@ public class ConsoleManager {
         }
     }
 
-    private class FancyConsoleHandler extends ConsoleHandler {
+    /**
+     * Unlike a ConsoleHandler this doesn't flush (and redraw the prompt) after every record,
+     * only when the AsyncLogHandler is done with a batch
+     */
+    private class FancyConsoleHandler extends StreamHandler {
         public FancyConsoleHandler() {
-            setFormatter(new DateOutputFormatter(CONSOLE_DATE));
+            setFormatter(new LogFormatter(CONSOLE_DATE));
             setOutputStream(System.out);
         }
 
+        @Override
+        public synchronized void close() {
+            // Never close System.out
+            flush();
+        }
+
         @Override
         public synchronized void flush() {
             try {
@@ -165,16 +191,16 @@ public class ConsoleManager {
     }
 
     private static class RotatingFileHandler extends StreamHandler {
-        private final SimpleDateFormat dateFormat;
+        private final ZoneId zone = ZoneId.systemDefault();
         private final String template;
         private final boolean rotate;
         private String filename;
+        private long nextRotation = Long.MAX_VALUE;
 
         public RotatingFileHandler(String template) {
             this.template = template;
             rotate = template.contains("%D");
-            dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-            filename = calculateFilename();
+            filename = calculateFilename(System.currentTimeMillis());
             updateOutput();
         }
 
@@ -186,19 +212,26 @@ public class ConsoleManager {
             }
         }
 
-        private void checkRotate() {
-            if (rotate) {
-                String newFilename = calculateFilename();
-                if (!filename.equals(newFilename)) {
-                    filename = newFilename;
-                    super.publish(new LogRecord(Level.INFO, "Log rotating to: " + filename));
-                    updateOutput();
-                }
+        /**
+         * Rotates the log once the given time has passed midnight, which only costs a comparison
+         * for every other record
+         * @param millis
+         */
+        private void checkRotate(long millis) {
+            if (millis >= nextRotation) {
+                filename = calculateFilename(millis);
+                super.publish(new LogRecord(Level.INFO, "Log rotating to: " + filename));
+                updateOutput();
             }
         }
 
-        private String calculateFilename() {
-            return template.replace("%D", dateFormat.format(new Date()));
+        private String calculateFilename(long millis) {
+            if (!rotate)
+                return template;
+
+            LocalDate date = Instant.ofEpochMilli(millis).atZone(zone).toLocalDate();
+            nextRotation = date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+            return template.replace("%D", date.format(DateTimeFormatter.ISO_LOCAL_DATE));
         }
 
         @Override
@@ -206,44 +239,15 @@ public class ConsoleManager {
             if (!isLoggable(record)) {
                 return;
             }
-            checkRotate();
+            // Flushing is left to the AsyncLogHandler, which does it once per batch
+            checkRotate(record.getMillis());
             super.publish(record);
-            super.flush();
         }
 
         @Override
         public synchronized void flush() {
-            checkRotate();
+            checkRotate(System.currentTimeMillis());
             super.flush();
         }
     }
-
-    private class DateOutputFormatter extends Formatter {
-        private final SimpleDateFormat date;
-
-        public DateOutputFormatter(String pattern) {
-            this.date = new SimpleDateFormat(pattern);
-        }
-
-        @Override
-        @SuppressWarnings("ThrowableResultOfMethodCallIgnored")
-        public String format(LogRecord record) {
-            StringBuilder builder = new StringBuilder();
-
-            builder.append(date.format(record.getMillis()));
-            builder.append(" [");
-            builder.append(record.getLevel().getLocalizedName().toUpperCase());
-            builder.append("] ");
-            builder.append(formatMessage(record));
-            builder.append('\n');
-
-            if (record.getThrown() != null) {
-                StringWriter writer = new StringWriter();
-                record.getThrown().printStackTrace(new PrintWriter(writer));
-                builder.append(writer.toString());
-            }
-
-            return builder.toString();
-        }
-    }
 }
@@ -0,0 +1,102 @@
+package com.captainbern.mserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Loads favicons as base64 data URIs. The PNG is never decoded: only the IHDR chunk is read to check
+ * the size, and the original bytes are encoded as they are. Encoded icons are cached by the hash of
+ * their contents, so reloading an icon that didn't change (or that's used by several profiles) costs
+ * a read and a hash.
+ */
+public class FaviconCache {
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final byte[] IHDR = "IHDR".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int SIZE = 64;
+    private static final int MAX_CACHED = 32;
+
+    private static final String PREFIX = "data:image/png;base64,";
+
+    private final Map<String, String> cache = new LinkedHashMap<String, String>(16, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_CACHED;
+        }
+    };
+
+    /**
+     * Reads the given favicon as a data URI, or returns null if it doesn't exist or isn't a valid 64x64 PNG
+     * @param file
+     * @return
+     */
+    public synchronized String load(File file) {
+        if (!file.exists())
+            return null;
+
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file.toPath());
+        } catch (IOException e) {
+            MaintenanceServer.LOGGER.warn("Something went wrong while reading " + file.getName() + "!");
+            return null;
+        }
+
+        String hash = hash(bytes);
+        String encoded = this.cache.get(hash);
+        if (encoded != null)
+            return encoded;
+
+        if (!Arrays.equals(Arrays.copyOf(bytes, PNG_SIGNATURE.length), PNG_SIGNATURE)) {
+            MaintenanceServer.LOGGER.warn("Found " + file.getName() + " but it isn't a PNG image!");
+            return null;
+        }
+
+        if (!hasValidSize(bytes)) {
+            MaintenanceServer.LOGGER.warn("Found " + file.getName() + " but it has an illegal size! Please make sure your server-icon is 64x64");
+            return null;
+        }
+
+        encoded = PREFIX + Base64.getEncoder().encodeToString(bytes);
+        this.cache.put(hash, encoded);
+        return encoded;
+    }
+
+    /**
+     * Checks the size in the IHDR chunk, which always directly follows the signature
+     * @param png
+     * @return
+     */
+    private static boolean hasValidSize(byte[] png) {
+        // Signature, chunk length, chunk type, width and height
+        if (png.length < PNG_SIGNATURE.length + 16)
+            return false;
+
+        ByteBuffer buffer = ByteBuffer.wrap(png, PNG_SIGNATURE.length, 16);
+        buffer.getInt(); // The length of the chunk
+
+        byte[] type = new byte[4];
+        buffer.get(type);
+
+        return Arrays.equals(type, IHDR) && buffer.getInt() == SIZE && buffer.getInt() == SIZE;
+    }
+
+    private static String hash(byte[] bytes) {
+        try {
+            return Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM has to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
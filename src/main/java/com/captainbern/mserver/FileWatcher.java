@@ -0,0 +1,68 @@
+package com.captainbern.mserver;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.HashSet;
+import java.util.Set;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches the server directory and lets the MaintenanceServer reload the files that changed.
+ * All reloading happens on this thread, so the event loops never wait for any file I/O.
+ */
+public class FileWatcher extends Thread {
+
+    /**
+     * Editors tend to write a file in several steps, so wait a bit for the changes to settle
+     */
+    private static final long SETTLE_DELAY = 250;
+
+    private final MaintenanceServer server;
+    private final WatchService watchService;
+
+    public FileWatcher(MaintenanceServer server, Path directory) throws IOException {
+        super("FileWatcher");
+        setDaemon(true);
+
+        this.server = server;
+        this.watchService = directory.getFileSystem().newWatchService();
+
+        directory.register(this.watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                WatchKey key = this.watchService.take();
+                Thread.sleep(SETTLE_DELAY);
+
+                Set<String> changed = new HashSet<>();
+                do {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() != OVERFLOW)
+                            changed.add(((Path) event.context()).getFileName().toString());
+                    }
+                    key.reset();
+                } while ((key = this.watchService.poll()) != null);
+
+                try {
+                    this.server.handleFileChanges(changed);
+                } catch (Exception e) {
+                    MaintenanceServer.LOGGER.warn("Failed to reload " + changed, e);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // We're shutting down
+        }
+    }
+
+    public void close() {
+        try {
+            this.watchService.close();
+        } catch (IOException e) {
+            // Swallow
+        }
+    }
+}
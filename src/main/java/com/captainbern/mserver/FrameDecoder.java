@@ -0,0 +1,66 @@
+package com.captainbern.mserver;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
+
+import java.util.List;
+
+/**
+ * Splits the inbound stream into packets using the VarInt length prefix of the Minecraft protocol.
+ * Every packet that is passed on to the next handler contains exactly one packet body (opcode + data).
+ */
+public class FrameDecoder extends ByteToMessageDecoder {
+
+    /**
+     * None of the packets we handle come even close to this size, anything bigger is garbage
+     */
+    public static final int DEFAULT_MAX_FRAME_SIZE = 32767;
+
+    private final int maxFrameSize;
+
+    public FrameDecoder() {
+        this(DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    public FrameDecoder(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        int start = in.readerIndex();
+        int length = 0;
+
+        for (int i = 0; i < 3; i++) {
+            if (!in.isReadable()) {
+                // The length isn't complete yet, wait for more data
+                in.readerIndex(start);
+                return;
+            }
+
+            byte part = in.readByte();
+            length |= (part & 0x7F) << (i * 7);
+
+            if ((part & 0x80) == 0) {
+                if (length < 0 || length > this.maxFrameSize) {
+                    in.skipBytes(in.readableBytes());
+                    throw new TooLongFrameException("Frame length of " + length + " exceeds the maximum of " + this.maxFrameSize);
+                }
+
+                if (in.readableBytes() < length) {
+                    in.readerIndex(start);
+                    return;
+                }
+
+                out.add(in.readSlice(length).retain());
+                return;
+            }
+        }
+
+        in.skipBytes(in.readableBytes());
+        throw new CorruptedFrameException("Frame length is wider than 21 bits");
+    }
+}
@@ -0,0 +1,28 @@
+package com.captainbern.mserver;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageEncoder;
+
+import java.util.List;
+
+/**
+ * Prepends the VarInt length of a packet to every outbound packet body. The body itself is passed
+ * on untouched so shared (pre-encoded) packets don't have to be copied.
+ *
+ * The server itself doesn't use this, it encodes its packets with their length prefix so every response
+ * is a single buffer. The load generator does.
+ */
+@ChannelHandler.Sharable
+public class FramePrepender extends MessageToMessageEncoder<ByteBuf> {
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) throws Exception {
+        ByteBuf header = ctx.alloc().buffer(ByteBufUtils.getVarIntSize(msg.readableBytes()));
+        ByteBufUtils.writeVarInt(header, msg.readableBytes());
+
+        out.add(header);
+        out.add(msg.retain());
+    }
+}
@@ -0,0 +1,138 @@
+package com.captainbern.mserver;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-size, log-linear latency histogram (in the spirit of HdrHistogram). Every power of two is split
+ * into 8 linear sub-buckets, so recorded values are accurate to within 12.5%. Recording is lock-free
+ * and doesn't allocate.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Values are recorded in microseconds, anything above 2^36us (~19 hours) ends up in the last bucket
+     */
+    private static final int MAX_BIT = 36;
+    private static final int BUCKETS = (MAX_BIT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + SUB_BUCKETS;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            this.counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records the time that has passed since the given System#nanoTime() timestamp
+     * @param startNanos
+     */
+    public void recordSince(long startNanos) {
+        record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+    }
+
+    public void record(long micros) {
+        if (micros < 0)
+            micros = 0;
+
+        this.counts[getIndex(micros)].increment();
+        this.count.increment();
+        this.sum.add(micros);
+    }
+
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    public long getSum() {
+        return this.sum.sum();
+    }
+
+    /**
+     * Returns the (upper bound of the bucket of the) value at the given percentile, in microseconds
+     * @param percentile Between 0 and 100
+     * @return
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] counts = snapshot();
+
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+
+        if (total == 0)
+            return 0;
+
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target)
+                return getUpperBound(i);
+        }
+
+        return getUpperBound(counts.length - 1);
+    }
+
+    /**
+     * Writes this histogram in the Prometheus text format, with one (cumulative) bucket per power of two
+     * @param builder
+     * @param name
+     * @param help
+     */
+    public void writePrometheus(StringBuilder builder, String name, String help) {
+        long[] counts = snapshot();
+
+        builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        builder.append("# TYPE ").append(name).append(" histogram\n");
+
+        long cumulative = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulative += counts[i];
+
+            // Only emit the bucket boundaries that line up with a power of two
+            if (i % SUB_BUCKETS == SUB_BUCKETS - 1 && i != counts.length - 1) {
+                builder.append(name).append("_bucket{le=\"").append(getUpperBound(i) / 1000000.0).append("\"} ")
+                        .append(cumulative).append('\n');
+            }
+        }
+
+        builder.append(name).append("_bucket{le=\"+Inf\"} ").append(cumulative).append('\n');
+        builder.append(name).append("_sum ").append(getSum() / 1000000.0).append('\n');
+        builder.append(name).append("_count ").append(cumulative).append('\n');
+    }
+
+    private long[] snapshot() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = this.counts[i].sum();
+        }
+        return counts;
+    }
+
+    private static int getIndex(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+
+        int bit = Math.min(MAX_BIT, 63 - Long.numberOfLeadingZeros(value));
+        int shift = bit - SUB_BUCKET_BITS;
+        int subBucket = (int) Math.min(SUB_BUCKETS - 1, (value >>> shift) - SUB_BUCKETS);
+
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long getUpperBound(int index) {
+        if (index < SUB_BUCKETS)
+            return index + 1;
+
+        int shift = index / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + index % SUB_BUCKETS + 1) << shift;
+    }
+}
@@ -0,0 +1,54 @@
+package com.captainbern.mserver;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Answers the server list pings of pre-1.7 clients (0xFE, 0xFE01 and 0xFE01FA) with a pre-encoded
+ * response. Modern clients never start with 0xFE, so for those the handler removes itself from the
+ * pipeline on the first read and they don't pay for it any further.
+ */
+public class LegacyPingHandler extends ChannelInboundHandlerAdapter {
+
+    private final MaintenanceServer maintenanceServer;
+
+    public LegacyPingHandler(MaintenanceServer maintenanceServer) {
+        this.maintenanceServer = maintenanceServer;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        ByteBuf byteBuf = (ByteBuf) msg;
+
+        if (!byteBuf.isReadable() || byteBuf.getUnsignedByte(byteBuf.readerIndex()) != 0xFE) {
+            ctx.pipeline().remove(this);
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        this.maintenanceServer.getMetrics().recordLegacyPing();
+
+        try {
+            // Beta 1.8 - 1.3 only send 0xFE, 1.4 and up follow it with 0x01 (and 1.6 with a plugin message)
+            boolean legacy = byteBuf.readableBytes() < 2 || byteBuf.getUnsignedByte(byteBuf.readerIndex() + 1) != 0x01;
+
+            ByteBuf response = legacy ? this.maintenanceServer.getLegacyPingPacket(ctx.channel().eventLoop())
+                    : this.maintenanceServer.getLegacyStatusPacket(ctx.channel().eventLoop());
+
+            // Legacy packets have no length prefix, the response is written exactly as it was encoded
+            ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+
+            AccessLog accessLog = this.maintenanceServer.getAccessLog();
+            if (accessLog != null) {
+                accessLog.record(((InetSocketAddress) ctx.channel().remoteAddress()).getAddress(), 0, -1, null, null,
+                        AccessLog.Outcome.LEGACY_STATUS);
+            }
+        } finally {
+            byteBuf.release();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.captainbern.mserver;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Formats log records as "[date] [LEVEL] message". The formatter is thread safe and does as little
+ * work per record as it can: the date is only rendered once per second, the level names are
+ * rendered up front and every thread reuses its own builder.
+ */
+public class LogFormatter extends Formatter {
+
+    private static final Level[] LEVELS = {
+            Level.SEVERE, Level.WARNING, Level.INFO, Level.CONFIG, Level.FINE, Level.FINER, Level.FINEST
+    };
+
+    /**
+     * Builders that grew bigger than this (because of a huge message) aren't kept around
+     */
+    private static final int MAX_BUILDER_SIZE = 4096;
+
+    private static final ThreadLocal<StringBuilder> BUILDER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
+    private final DateTimeFormatter dateFormatter;
+    private final String[] levelNames = new String[LEVELS.length];
+
+    private volatile CachedDate cachedDate = new CachedDate(Long.MIN_VALUE, "");
+
+    /**
+     * @param pattern The {@link DateTimeFormatter} pattern of the date, in the system's time zone
+     */
+    public LogFormatter(String pattern) {
+        this.dateFormatter = DateTimeFormatter.ofPattern(pattern).withZone(ZoneId.systemDefault());
+
+        for (int i = 0; i < LEVELS.length; i++) {
+            this.levelNames[i] = getLevelName(LEVELS[i]);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("ThrowableResultOfMethodCallIgnored")
+    public String format(LogRecord record) {
+        StringBuilder builder = BUILDER.get();
+        builder.setLength(0);
+
+        builder.append(getDate(record.getMillis()));
+        builder.append(getLevel(record.getLevel()));
+        builder.append(formatMessage(record));
+        builder.append('\n');
+
+        if (record.getThrown() != null) {
+            StringWriter writer = new StringWriter();
+            record.getThrown().printStackTrace(new PrintWriter(writer));
+            builder.append(writer.toString());
+        }
+
+        String formatted = builder.toString();
+
+        if (builder.capacity() > MAX_BUILDER_SIZE)
+            BUILDER.remove();
+
+        return formatted;
+    }
+
+    private String getDate(long millis) {
+        long second = Math.floorDiv(millis, 1000L);
+
+        CachedDate cached = this.cachedDate;
+        if (cached.second != second) {
+            // Racing threads may both render it, which is harmless
+            cached = new CachedDate(second, this.dateFormatter.format(Instant.ofEpochSecond(second)));
+            this.cachedDate = cached;
+        }
+
+        return cached.formatted;
+    }
+
+    private String getLevel(Level level) {
+        for (int i = 0; i < LEVELS.length; i++) {
+            if (LEVELS[i] == level)
+                return this.levelNames[i];
+        }
+
+        // A custom level
+        return getLevelName(level);
+    }
+
+    private static String getLevelName(Level level) {
+        return " [" + level.getLocalizedName().toUpperCase(Locale.ENGLISH) + "] ";
+    }
+
+    private static class CachedDate {
+        private final long second;
+        private final String formatted;
+
+        private CachedDate(long second, String formatted) {
+            this.second = second;
+            this.formatted = formatted;
+        }
+    }
+}
@@ -0,0 +1,460 @@
+package com.captainbern.mserver;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps track of the players that tried to join, so they can be told once the server is back.
+ *
+ * How often a name was tried is estimated with a count-min sketch, and the names themselves are kept in
+ * a fixed amount of slots. Every name may go in one of two slots, and a new name only takes a slot over
+ * from a name that has been tried less often, or just as often but longer ago. A flood of random names
+ * from bots (which are all tried once) can only push out other names that were tried once, and
+ * memory stays the same no matter how many names there are.
+ *
+ * Like in TinyLFU, the first attempt of a name only goes into a bloom filter (the "doorkeeper"), so names
+ * that are only tried once hardly ever make it into the sketch and can't drown out the names that are
+ * tried again. The doorkeeper is cleared and the sketch's counters are halved every now and then, so old
+ * attempts count for less and neither of them saturates.
+ *
+ * Everything is updated with atomic operations only, straight from the event loops.
+ */
+public class LoginTracker {
+
+    private static final String DATE_FORMAT = "yyyy-MM-dd HH:mm:ss Z";
+
+    private static final int DEPTH = 4;
+
+    /**
+     * The counters are halved once there have been this many attempts per counter in a row of the sketch
+     */
+    private static final int RESET_FACTOR = 10;
+
+    /**
+     * The doorkeeper has this many bits per counter in a row of the sketch, and uses 3 of them per name
+     */
+    private static final int DOORKEEPER_BITS = 8;
+    private static final int DOORKEEPER_HASHES = 3;
+
+    private final AtomicReferenceArray<Attempt> slots;
+    private final int slotMask;
+
+    private final AtomicIntegerArray sketch;
+    private final int width;
+    private final int widthMask;
+    private final AtomicLong additions = new AtomicLong();
+    private final AtomicBoolean resetting = new AtomicBoolean();
+
+    private final AtomicLongArray doorkeeper;
+    private final int doorkeeperMask;
+    private final AtomicLong doorkeeperAdditions = new AtomicLong();
+
+    private final AtomicLong attempts = new AtomicLong();
+
+    /**
+     * @param size The amount of names to keep track of, rounded up to a power of two
+     */
+    public LoginTracker(int size) {
+        int slots = Integer.highestOneBit(Math.max(2, size - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(slots);
+        this.slotMask = slots - 1;
+
+        // Wide enough that the names that are kept rarely share all of their counters
+        this.width = slots * 16;
+        this.widthMask = this.width - 1;
+        this.sketch = new AtomicIntegerArray(this.width * DEPTH);
+
+        this.doorkeeper = new AtomicLongArray(this.width * DOORKEEPER_BITS / 64);
+        this.doorkeeperMask = this.width * DOORKEEPER_BITS - 1;
+    }
+
+    /**
+     * Records an attempt to join, called from the event loops
+     * @param name
+     * @param address
+     */
+    public void record(String name, InetAddress address) {
+        long hash = AccessLog.hash(name);
+        increment(hash);
+        int estimate = estimate(hash);
+        long now = System.currentTimeMillis();
+
+        this.attempts.incrementAndGet();
+
+        int first = (int) hash & this.slotMask;
+        int second = (int) (hash >>> 32) & this.slotMask;
+
+        while (true) {
+            Attempt a = this.slots.get(first);
+            Attempt b = this.slots.get(second);
+
+            // Tracked already
+            Attempt tracked = a != null && a.matches(hash, name) ? a : b != null && b.matches(hash, name) ? b : null;
+            if (tracked != null) {
+                tracked.update(name, address, now);
+                return;
+            }
+
+            int slot;
+            Attempt victim;
+            if (a == null || b == null) {
+                slot = a == null ? first : second;
+                victim = null;
+            } else {
+                // The one that has been tried the least, and longest ago
+                boolean firstIsWorse = compare(a, b) <= 0;
+                slot = firstIsWorse ? first : second;
+                victim = firstIsWorse ? a : b;
+
+                // A new name has one tracked attempt, so it has to be tried more often than the victim to get in
+                if (compare(estimate, 1, now, victim) <= 0)
+                    return;
+            }
+
+            if (this.slots.compareAndSet(slot, victim, new Attempt(hash, name, address, now)))
+                return;
+
+            // Another event loop changed the slot in the meantime, look again
+        }
+    }
+
+    /**
+     * Returns the total amount of attempts that were recorded
+     * @return
+     */
+    public long getAttempts() {
+        return this.attempts.get();
+    }
+
+    /**
+     * Returns the names that were tried the most (and most recently), most first
+     * @param count
+     * @return
+     */
+    public List<Attempt> getTop(int count) {
+        // The estimates and times keep changing, so sort on a copy of them
+        List<Attempt> attempts = new ArrayList<>();
+        List<long[]> keys = new ArrayList<>();
+        for (int i = 0; i < this.slots.length(); i++) {
+            Attempt attempt = this.slots.get(i);
+            if (attempt != null) {
+                keys.add(new long[]{estimate(attempt.hash), attempt.attempts.get(), attempt.lastSeen, attempts.size()});
+                attempts.add(attempt);
+            }
+        }
+
+        Collections.sort(keys, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                for (int i = 0; i < 3; i++) {
+                    int result = Long.compare(b[i], a[i]);
+                    if (result != 0)
+                        return result;
+                }
+                return 0;
+            }
+        });
+
+        List<Attempt> top = new ArrayList<>();
+        for (int i = 0; i < Math.min(count, keys.size()); i++) {
+            top.add(attempts.get((int) keys.get(i)[3]));
+        }
+        return top;
+    }
+
+    /**
+     * Returns the estimated amount of attempts for the given name
+     * @param name
+     * @return
+     */
+    public int estimate(String name) {
+        return estimate(AccessLog.hash(name));
+    }
+
+    /**
+     * Writes all tracked names to the given file, through a temporary file so it's never half written
+     * @param file
+     * @throws IOException
+     */
+    public void save(File file) throws IOException {
+        SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_FORMAT);
+        JSONArray array = new JSONArray();
+
+        for (Attempt attempt : getTop(Integer.MAX_VALUE)) {
+            JSONObject entry = new JSONObject();
+            entry.put("name", attempt.name);
+            entry.put("attempts", attempt.attempts.get());
+            entry.put("estimate", estimate(attempt.hash));
+            entry.put("address", attempt.address.getHostAddress());
+            entry.put("first-seen", dateFormat.format(new Date(attempt.firstSeen)));
+            entry.put("last-seen", dateFormat.format(new Date(attempt.lastSeen)));
+            array.put(entry);
+        }
+
+        File temporary = new File(file.getPath() + ".tmp");
+        Files.write(temporary.toPath(), array.toString(2).getBytes(StandardCharsets.UTF_8));
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads the names of a previous snapshot, so they aren't lost when the server is restarted
+     * @param file
+     */
+    public void load(File file) {
+        SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_FORMAT);
+        int loaded = 0;
+
+        List<JSONObject> entries;
+        try {
+            entries = AccessList.readEntries(file);
+        } catch (IOException e) {
+            MaintenanceServer.LOGGER.warn("Failed to load " + file, e);
+            return;
+        }
+
+        for (JSONObject entry : entries) {
+            try {
+                String name = entry.getString("name");
+                long hash = AccessLog.hash(name);
+                int attempts = entry.optInt("attempts", 1);
+
+                for (int i = 0; i < Math.min(entry.optInt("estimate", attempts), 1000); i++) {
+                    increment(hash);
+                }
+
+                Attempt attempt = new Attempt(hash, name, InetAddress.getByName(entry.getString("address")),
+                        dateFormat.parse(entry.getString("first-seen")).getTime());
+                attempt.lastSeen = dateFormat.parse(entry.getString("last-seen")).getTime();
+                attempt.attempts.set(attempts);
+
+                int first = (int) hash & this.slotMask;
+                int second = (int) (hash >>> 32) & this.slotMask;
+
+                // Loaded while the server is accepting connections already, the name may have been tried since
+                Attempt a = this.slots.get(first);
+                Attempt b = this.slots.get(second);
+                if ((a != null && a.matches(hash, name)) || (b != null && b.matches(hash, name)))
+                    continue;
+
+                if (this.slots.compareAndSet(first, null, attempt) || this.slots.compareAndSet(second, null, attempt))
+                    loaded++;
+            } catch (JSONException | ParseException | IOException e) {
+                MaintenanceServer.LOGGER.warn("Ignoring an invalid entry in " + file + ": " + e.getMessage());
+            }
+        }
+
+        if (loaded > 0)
+            MaintenanceServer.LOGGER.info("Loaded " + loaded + " players that tried to join");
+    }
+
+    /**
+     * Orders by estimated attempts, then by the attempts since the names were tracked, then by the time of the last attempt
+     */
+    private int compare(Attempt a, Attempt b) {
+        return compare(estimate(a.hash), a.attempts.get(), a.lastSeen, b);
+    }
+
+    private int compare(int estimate, int attempts, long lastSeen, Attempt other) {
+        int result = Integer.compare(estimate, estimate(other.hash));
+        if (result == 0)
+            result = Integer.compare(attempts, other.attempts.get());
+        return result != 0 ? result : Long.compare(lastSeen, other.lastSeen);
+    }
+
+    /**
+     * Adds an attempt, the first one only goes into the doorkeeper
+     * @param hash
+     */
+    private void increment(long hash) {
+        if (!addToDoorkeeper(hash))
+            return;
+
+        // Conservative update: only the smallest counters are raised, the others are overestimating already
+        int estimate = sketchEstimate(hash);
+        for (int i = 0; i < DEPTH; i++) {
+            this.sketch.compareAndSet(index(hash, i), estimate, estimate + 1);
+        }
+
+        if (this.additions.incrementAndGet() >= (long) this.width * RESET_FACTOR)
+            reset();
+    }
+
+    /**
+     * Returns the estimated amount of attempts for the given hash
+     * @param hash
+     * @return
+     */
+    private int estimate(long hash) {
+        return sketchEstimate(hash) + (inDoorkeeper(hash) ? 1 : 0);
+    }
+
+    private int sketchEstimate(long hash) {
+        int estimate = Integer.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            estimate = Math.min(estimate, this.sketch.get(index(hash, i)));
+        }
+        return estimate;
+    }
+
+    /**
+     * Adds the hash to the doorkeeper
+     * @param hash
+     * @return Whether it was in there already
+     */
+    private boolean addToDoorkeeper(long hash) {
+        boolean present = true;
+        for (int i = 0; i < DOORKEEPER_HASHES; i++) {
+            int bit = doorkeeperIndex(hash, i);
+            long mask = 1L << bit;
+
+            long word;
+            do {
+                word = this.doorkeeper.get(bit >>> 6);
+                if ((word & mask) != 0)
+                    break;
+                present = false;
+            } while (!this.doorkeeper.compareAndSet(bit >>> 6, word, word | mask));
+        }
+
+        // Beyond one name per 8 bits, the doorkeeper lets too many names through
+        if (!present && this.doorkeeperAdditions.incrementAndGet() >= this.doorkeeper.length() * 64 / DOORKEEPER_BITS)
+            clearDoorkeeper();
+
+        return present;
+    }
+
+    private boolean inDoorkeeper(long hash) {
+        for (int i = 0; i < DOORKEEPER_HASHES; i++) {
+            int bit = doorkeeperIndex(hash, i);
+            if ((this.doorkeeper.get(bit >>> 6) & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    private void clearDoorkeeper() {
+        this.doorkeeperAdditions.set(0);
+        for (int i = 0; i < this.doorkeeper.length(); i++) {
+            this.doorkeeper.set(i, 0);
+        }
+    }
+
+    /**
+     * Halves all counters and clears the doorkeeper. Attempts counted while this runs may be halved or not,
+     * which the estimates can live with.
+     */
+    private void reset() {
+        if (!this.resetting.compareAndSet(false, true))
+            return;
+
+        try {
+            for (int i = 0; i < this.sketch.length(); i++) {
+                int value;
+                do {
+                    value = this.sketch.get(i);
+                } while (!this.sketch.compareAndSet(i, value, value >>> 1));
+            }
+            this.additions.set(0);
+            clearDoorkeeper();
+        } finally {
+            this.resetting.set(false);
+        }
+    }
+
+    private int doorkeeperIndex(long hash, int i) {
+        long mixed = (hash + i * 0x9E3779B97F4A7C15L) * 0xFF51AFD7ED558CCDL;
+        return (int) (mixed ^ (mixed >>> 32)) & this.doorkeeperMask;
+    }
+
+    /**
+     * The counter of the given row, the rows' hashes are derived from the two halves of the 64 bit hash
+     */
+    private int index(long hash, int row) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        int combined = h1 + row * h2;
+        combined ^= combined >>> 16;
+        return row * this.width + (combined & this.widthMask);
+    }
+
+    /**
+     * A name that tried to join
+     */
+    public static class Attempt {
+
+        private final long hash;
+        private volatile String name;
+        private volatile InetAddress address;
+        private final long firstSeen;
+        private volatile long lastSeen;
+        private final AtomicInteger attempts = new AtomicInteger(1);
+
+        private Attempt(long hash, String name, InetAddress address, long now) {
+            this.hash = hash;
+            this.name = name;
+            this.address = address;
+            this.firstSeen = now;
+            this.lastSeen = now;
+        }
+
+        private boolean matches(long hash, String name) {
+            return this.hash == hash && this.name.equalsIgnoreCase(name);
+        }
+
+        private void update(String name, InetAddress address, long now) {
+            this.name = name;
+            this.address = address;
+            this.lastSeen = now;
+            this.attempts.incrementAndGet();
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        /**
+         * Returns the address of the last attempt
+         * @return
+         */
+        public InetAddress getAddress() {
+            return this.address;
+        }
+
+        /**
+         * Returns the amount of attempts since this name was tracked
+         * @return
+         */
+        public int getAttempts() {
+            return this.attempts.get();
+        }
+
+        public long getFirstSeen() {
+            return this.firstSeen;
+        }
+
+        public long getLastSeen() {
+            return this.lastSeen;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import joptsimple.OptionSet;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.Arrays;
 
 import static java.util.Arrays.asList;
 import static com.captainbern.mserver.Options.*;
@@ -12,7 +13,48 @@ import static com.captainbern.mserver.Options.*;
 public class Main {
 
     public static void main(String[] args) {
-        OptionParser optionParser = new OptionParser() {
+        // Querying the access log doesn't need a server
+        if (args.length > 0 && args[0].equals("query")) {
+            AccessLogQuery.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        OptionParser optionParser = createOptionParser();
+
+        OptionSet optionSet = optionParser.parse(args);
+
+        if (optionSet.has("help")) {
+            PrintWriter printWriter = null;
+            try {
+                optionParser.printHelpOn(printWriter = new PrintWriter(System.out));
+            } catch (IOException e) {
+                MaintenanceServer.LOGGER.warn("Failed to display the help!", e);
+            } finally {
+                if (printWriter != null) {
+                    printWriter.close();
+                }
+            }
+            return;
+        }
+
+        MaintenanceServer server = new MaintenanceServer(optionSet);
+
+        try {
+            // Bound first, the favicon and lists are loaded in the background and pings are answered without them until they're ready
+            server.bind();
+            server.start();
+        } catch (Throwable throwable) {
+            MaintenanceServer.LOGGER.error("An error occurred during server startup", throwable);
+            System.exit(-1);
+        }
+    }
+
+    /**
+     * Creates the parser of the server's options, with all of their defaults
+     * @return
+     */
+    public static OptionParser createOptionParser() {
+        return new OptionParser() {
             {
                 accepts(USE_CONFIG).withRequiredArg().ofType(boolean.class).defaultsTo(Defaults.USE_CONFIG)
                         .describedAs("Whether or not the server should create/use a config file");
@@ -23,12 +65,30 @@ public class Main {
                 acceptsAll(asList(LOG_FILE, "log")).withRequiredArg().ofType(String.class).defaultsTo(Defaults.LOG_FILE)
                         .describedAs("The file which should be used to log");
 
+                accepts(LOG_QUEUE_SIZE).withRequiredArg().ofType(int.class).defaultsTo(Defaults.LOG_QUEUE_SIZE)
+                        .describedAs("The amount of log records that can be waiting to be written");
+
+                accepts(LOG_OVERFLOW_POLICY).withRequiredArg().ofType(String.class).defaultsTo(Defaults.LOG_OVERFLOW_POLICY)
+                        .describedAs("What to do with log records when the queue is full: block, drop or sample");
+
+                accepts(LOG_FLUSH_INTERVAL).withRequiredArg().ofType(int.class).defaultsTo(Defaults.LOG_FLUSH_INTERVAL)
+                        .describedAs("The maximum amount of milliseconds between two log flushes");
+
                 acceptsAll(asList(PORT, "p")).withRequiredArg().ofType(int.class).defaultsTo(Defaults.PORT)
                         .describedAs("The port the server should bind to.");
 
                 accepts(IP).withRequiredArg().ofType(String.class).defaultsTo(Defaults.IP)
                         .describedAs("The IP the server should bind to");
 
+                accepts(BIND_ADDRESSES).withRequiredArg().ofType(String.class).defaultsTo(Defaults.BIND_ADDRESSES)
+                        .describedAs("A comma separated list of host:port[=profile] addresses to bind to instead of the ip and port");
+
+                accepts(SUPERVISED).withRequiredArg().ofType(boolean.class).defaultsTo(Defaults.SUPERVISED)
+                        .describedAs("Whether or not to share the port with the real server and only listen while the takeover-file exists (or after \"takeover\")");
+
+                accepts(TAKEOVER_FILE).withRequiredArg().ofType(String.class).defaultsTo(Defaults.TAKEOVER_FILE)
+                        .describedAs("The file in the server folder that makes a supervised server take over the port");
+
                 accepts(PROTOCOL).withRequiredArg().ofType(int.class).defaultsTo(Defaults.PROTOCOL)
                         .describedAs("The Protocol version the server should use");
 
@@ -41,6 +101,12 @@ public class Main {
                 accepts(MAX_ONLINE).withRequiredArg().ofType(int.class)
                         .describedAs("The max online players (will appear client side)").defaultsTo(Defaults.MAX_ONLINE_PLAYERS);
 
+                accepts(PLAYER_SOURCE).withRequiredArg().ofType(String.class).defaultsTo(Defaults.PLAYER_SOURCE)
+                        .describedAs("A file or tcp://host:port to read the live player counts and sample from, instead of the static counts");
+
+                accepts(PLAYER_POLL_INTERVAL).withRequiredArg().ofType(int.class).defaultsTo(Defaults.PLAYER_POLL_INTERVAL)
+                        .describedAs("How often (in milliseconds) the player-source is read");
+
                 accepts(MOTD).withRequiredArg().ofType(String.class).defaultsTo(Defaults.MOTD)
                         .describedAs("The motd");
 
@@ -53,34 +119,86 @@ public class Main {
                 accepts(KICK_MESSAGE_NOT_ON_WHITELIST).withRequiredArg().ofType(String.class).defaultsTo(Defaults.KICK_MESSAGE_NOT_ON_WHITELIST)
                         .describedAs("The default kick message that will be used when a non-whitelisted player tries to login");
 
-                acceptsAll(asList("h", "?", "help", "info"), "Displays some help/info");
-            }
-        };
+                accepts(USE_WHITELIST).withRequiredArg().ofType(boolean.class).defaultsTo(Defaults.USE_WHITELIST)
+                        .describedAs("Whether or not players that aren't on the whitelist.json should get the not-whitelisted kick message");
 
-        OptionSet optionSet = optionParser.parse(args);
+                accepts(USE_EPOLL).withRequiredArg().ofType(boolean.class).defaultsTo(Defaults.USE_EPOLL)
+                        .describedAs("Whether or not the native epoll transport should be used when it is available");
 
-        if (optionSet.has("help")) {
-            PrintWriter printWriter = null;
-            try {
-                optionParser.printHelpOn(printWriter = new PrintWriter(System.out));
-            } catch (IOException e) {
-                MaintenanceServer.LOGGER.warn("Failed to display the help!", e);
-            } finally {
-                if (printWriter != null) {
-                    printWriter.close();
-                }
-            }
-            return;
-        }
+                accepts(BOSS_THREADS).withRequiredArg().ofType(int.class).defaultsTo(Defaults.BOSS_THREADS)
+                        .describedAs("The amount of threads accepting connections (one listening socket each when using epoll)");
 
-        MaintenanceServer server = new MaintenanceServer(optionSet);
+                accepts(WORKER_THREADS).withRequiredArg().ofType(int.class).defaultsTo(Defaults.WORKER_THREADS)
+                        .describedAs("The amount of threads handling the connections (0 means twice the amount of cores)");
 
-        try {
-            server.start();
-            server.bind();
-        } catch (Throwable throwable) {
-            MaintenanceServer.LOGGER.error("An error occurred during server startup", throwable);
-            System.exit(-1);
-        }
+                accepts(BACKLOG).withRequiredArg().ofType(int.class).defaultsTo(Defaults.BACKLOG)
+                        .describedAs("The maximum amount of pending connections (SO_BACKLOG)");
+
+                accepts(TCP_NO_DELAY).withRequiredArg().ofType(boolean.class).defaultsTo(Defaults.TCP_NO_DELAY)
+                        .describedAs("Whether or not Nagle's algorithm should be disabled on connections (TCP_NODELAY)");
+
+                accepts(RECEIVE_BUFFER_SIZE).withRequiredArg().ofType(int.class).defaultsTo(Defaults.RECEIVE_BUFFER_SIZE)
+                        .describedAs("The socket receive buffer size of connections (0 leaves it to the OS)");
+
+                accepts(SEND_BUFFER_SIZE).withRequiredArg().ofType(int.class).defaultsTo(Defaults.SEND_BUFFER_SIZE)
+                        .describedAs("The socket send buffer size of connections (0 leaves it to the OS)");
+
+                accepts(WRITE_BUFFER_HIGH_WATER_MARK).withRequiredArg().ofType(int.class).defaultsTo(Defaults.WRITE_BUFFER_HIGH_WATER_MARK)
+                        .describedAs("The amount of pending outbound bytes after which a connection is no longer writable");
+
+                accepts(WRITE_BUFFER_LOW_WATER_MARK).withRequiredArg().ofType(int.class).defaultsTo(Defaults.WRITE_BUFFER_LOW_WATER_MARK)
+                        .describedAs("The amount of pending outbound bytes at which a connection becomes writable again");
+
+                accepts(METRICS_PORT).withRequiredArg().ofType(int.class).defaultsTo(Defaults.METRICS_PORT)
+                        .describedAs("The port the (Prometheus) metrics endpoint should bind to (0 disables it)");
+
+                accepts(METRICS_IP).withRequiredArg().ofType(String.class).defaultsTo(Defaults.METRICS_IP)
+                        .describedAs("The IP the metrics endpoint should bind to");
+
+                accepts(HANDSHAKE_TIMEOUT).withRequiredArg().ofType(int.class).defaultsTo(Defaults.HANDSHAKE_TIMEOUT)
+                        .describedAs("The time (in milliseconds) a connection gets to send its handshake (0 disables the timeout)");
+
+                accepts(STATE_TIMEOUT).withRequiredArg().ofType(int.class).defaultsTo(Defaults.STATE_TIMEOUT)
+                        .describedAs("The time (in milliseconds) a connection may stay in the status or login state (0 disables the timeout)");
+
+                accepts(CONNECTION_TIMEOUT).withRequiredArg().ofType(int.class).defaultsTo(Defaults.CONNECTION_TIMEOUT)
+                        .describedAs("The maximum lifetime (in milliseconds) of a connection (0 disables the timeout)");
+
+                accepts(SHUTDOWN_TIMEOUT).withRequiredArg().ofType(int.class).defaultsTo(Defaults.SHUTDOWN_TIMEOUT)
+                        .describedAs("The time (in milliseconds) open connections get to finish when the server is stopped");
+
+                accepts(ACCESS_LOG).withRequiredArg().ofType(String.class).defaultsTo(Defaults.ACCESS_LOG)
+                        .describedAs("The directory to write the binary access log to, query it with \"query\" (empty disables it)");
+
+                accepts(ACCESS_LOG_SEGMENT_SIZE).withRequiredArg().ofType(int.class).defaultsTo(Defaults.ACCESS_LOG_SEGMENT_SIZE)
+                        .describedAs("The maximum size (in megabytes, 1 - 2047) of a single access log file");
+
+                accepts(LOGIN_TRACKER_SIZE).withRequiredArg().ofType(int.class).defaultsTo(Defaults.LOGIN_TRACKER_SIZE)
+                        .describedAs("The amount of players that tried to join to keep track of, listed by \"joins\" (0 disables it)");
+
+                accepts(LOGIN_SNAPSHOT_INTERVAL).withRequiredArg().ofType(int.class).defaultsTo(Defaults.LOGIN_SNAPSHOT_INTERVAL)
+                        .describedAs("How often (in seconds) the players that tried to join are written to login-attempts.json (0 only does so when stopping)");
+
+                accepts(THROTTLE_RATE).withRequiredArg().ofType(int.class).defaultsTo(Defaults.THROTTLE_RATE)
+                        .describedAs("The amount of connections a single address may open per second (0 disables throttling)");
+
+                accepts(THROTTLE_BURST).withRequiredArg().ofType(int.class).defaultsTo(Defaults.THROTTLE_BURST)
+                        .describedAs("The amount of connections a single address may open at once");
+
+                accepts(THROTTLE_MAX_ADDRESSES).withRequiredArg().ofType(int.class).defaultsTo(Defaults.THROTTLE_MAX_ADDRESSES)
+                        .describedAs("The maximum amount of addresses that are throttled individually, any others share one limit");
+
+                accepts(THROTTLE_OVERFLOW_RATE).withRequiredArg().ofType(int.class).defaultsTo(Defaults.THROTTLE_OVERFLOW_RATE)
+                        .describedAs("The amount of connections per second shared by all addresses beyond " + THROTTLE_MAX_ADDRESSES);
+
+                accepts(POOLED_BUFFERS).withRequiredArg().ofType(boolean.class).defaultsTo(Defaults.POOLED_BUFFERS)
+                        .describedAs("Whether or not the packet buffers should be pooled");
+
+                accepts(DIRECT_BUFFERS).withRequiredArg().ofType(boolean.class).defaultsTo(Defaults.DIRECT_BUFFERS)
+                        .describedAs("Whether or not the packet buffers should be allocated off-heap");
+
+                acceptsAll(asList("h", "?", "help", "info"), "Displays some help/info");
+            }
+        };
     }
 }
@@ -1,25 +1,46 @@
 package com.captainbern.mserver;
 
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
 import io.netty.channel.*;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
 import joptsimple.OptionSet;
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.imageio.ImageIO;
-import javax.xml.bind.DatatypeConverter;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.net.UnknownHostException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
 
 import static com.captainbern.mserver.Options.*;
 
@@ -27,55 +48,227 @@ public class MaintenanceServer {
 
     public static final Logger LOGGER = LoggerFactory.getLogger(MaintenanceServer.class);
 
-    private final ConsoleManager consoleManager = new ConsoleManager(this);
+    private final ConsoleManager consoleManager;
+
+    private final Metrics metrics = new Metrics();
+    private final MetricsHandler metricsHandler = new MetricsHandler(this.metrics);
 
     private final ServerBootstrap bootstrap = new ServerBootstrap();
-    private final EventLoopGroup bossGroup = new NioEventLoopGroup();
-    private final EventLoopGroup workerGroup = new NioEventLoopGroup();
+    private final EventLoopGroup bossGroup;
+    private final EventLoopGroup workerGroup;
+    private final boolean epoll;
+    private final Class<? extends ServerChannel> channelClass;
+
+    private final ChannelGroup serverChannels = new DefaultChannelGroup("listeners", GlobalEventExecutor.INSTANCE);
+    private Channel metricsChannel;
+    private final ChannelGroup connections = new DefaultChannelGroup("connections", GlobalEventExecutor.INSTANCE);
+    private final AtomicBoolean stopped = new AtomicBoolean();
 
     private final OptionSet options;
     private PropertyHandler propertyHandler;
 
     private int port;
     private String ip;
+    private String bindAddresses;
+    private List<BindAddress> addresses;
+
+    private boolean supervised;
+    private String takeoverFile;
+    private boolean takenOver;
+
+    private boolean useEpoll;
+    private int bossThreads;
+    private int workerThreads;
+
+    private int backlog;
+    private boolean tcpNoDelay;
+    private int receiveBufferSize;
+    private int sendBufferSize;
+    private int writeBufferHighWaterMark;
+    private int writeBufferLowWaterMark;
+
+    private int metricsPort;
+    private String metricsIp;
+
+    private int handshakeTimeout;
+    private int stateTimeout;
+    private int connectionTimeout;
+    private int shutdownTimeout;
+
+    private String accessLogDirectory;
+    private int accessLogSegmentSize;
+    private AccessLog accessLog;
+
+    private int loginTrackerSize;
+    private int loginSnapshotInterval;
+    private LoginTracker loginTracker;
+    private volatile long savedLoginAttempts;
+    private ScheduledFuture<?> loginSnapshotTask;
+
+    private int throttleRate;
+    private int throttleBurst;
+    private int throttleMaxAddresses;
+    private int throttleOverflowRate;
+    private ConnectionThrottle connectionThrottle;
 
-    private JSONObject pingResponse;
+    private boolean pooledBuffers;
+    private boolean directBuffers;
+    private ByteBufAllocator allocator;
+
+    private volatile JSONObject pingResponse;
+    private final SharedPacket statusPacket = new SharedPacket();
+    private final SharedPacket legacyPingPacket = new SharedPacket();
+    private final SharedPacket legacyStatusPacket = new SharedPacket();
+
+    // The Disconnect packets of the kick messages, compiled whenever the messages are (re)loaded
+    private final SharedPacket kickPacket = new SharedPacket();
+    private final SharedPacket kickPacketBanned = new SharedPacket();
+    private final SharedPacket kickPacketNotOnWhiteList = new SharedPacket();
     private int protocolVersion;
     private String serverVersion;
     private int onlinePlayers;
     private int maxOnlinePlayers;
+    private String playerSource;
+    private int playerPollInterval;
+    private volatile PlayerCounts playerCounts;
+    private PlayerCountPoller playerCountPoller;
     private String motd;
+    private String favicon;
+    private final FaviconCache faviconCache = new FaviconCache();
+
+    private volatile String defaultKickMessage;
+    private volatile String kickMessageNotOnWhiteList;
+    private volatile String kickMessageBanned;
+
+    private volatile StatusProfiles statusProfiles = StatusProfiles.EMPTY;
+
+    private volatile boolean whitelistEnabled;
+    private volatile AccessList accessList = AccessList.EMPTY;
 
-    private String defaultKickMessage;
-    private String kickMessageNotOnWhiteList;
-    private String kickMessageBanned;
+    /**
+     * Completed once the access list has been loaded at startup, logins wait for it
+     */
+    private final CompletableFuture<Void> accessListLoaded = new CompletableFuture<>();
 
+    private FileWatcher fileWatcher;
+
+    private static String PROPERTIES = "maintenance-server.properties";
+    private static String FAVICON = "server-icon.png";
     private static String BANNED_PLAYERS = "banned-players.json";
     private static String BANNED_IPS = "banned-ips.json";
     private static String WHITELIST = "whitelist.json";
+    private static String STATUS_PROFILES = "status-profiles.json";
+    private static String LOGIN_ATTEMPTS = "login-attempts.json";
+
+    /**
+     * How often (in milliseconds) a takeover retries binding while the real server holds the port
+     */
+    private static final long TAKEOVER_RETRY_INTERVAL = 250;
 
     public MaintenanceServer(OptionSet options) {
+        this.options = options;
+
+        // The console (and its log queue) comes first, so everything after it can be logged
+        if (((Boolean) options.valueOf(USE_CONFIG))) {
+            this.propertyHandler = new PropertyHandler(new File(getRoot(), PROPERTIES));
+            this.consoleManager = new ConsoleManager(this, this.propertyHandler.getInt(LOG_QUEUE_SIZE, Defaults.LOG_QUEUE_SIZE),
+                    AsyncLogHandler.OverflowPolicy.fromString(this.propertyHandler.getString(LOG_OVERFLOW_POLICY, Defaults.LOG_OVERFLOW_POLICY)),
+                    this.propertyHandler.getInt(LOG_FLUSH_INTERVAL, Defaults.LOG_FLUSH_INTERVAL));
+            loadProperties();
+        } else {
+            this.consoleManager = new ConsoleManager(this, (int) options.valueOf(LOG_QUEUE_SIZE),
+                    AsyncLogHandler.OverflowPolicy.fromString((String) options.valueOf(LOG_OVERFLOW_POLICY)),
+                    (int) options.valueOf(LOG_FLUSH_INTERVAL));
+            loadArgs(options);
+        }
+        validateOptions();
+
+        if (this.pooledBuffers) {
+            this.allocator = new PooledByteBufAllocator(this.directBuffers);
+        } else {
+            this.allocator = new UnpooledByteBufAllocator(this.directBuffers);
+        }
+
+        if (this.useEpoll && !Epoll.isAvailable())
+            LOGGER.warn("Native epoll transport is not available on this platform, falling back to NIO");
+
+        this.epoll = this.useEpoll && Epoll.isAvailable();
+
+        if (this.epoll) {
+            this.bossGroup = new EpollEventLoopGroup(this.bossThreads);
+            this.workerGroup = new EpollEventLoopGroup(this.workerThreads);
+            this.channelClass = EpollServerSocketChannel.class;
+
+            // Only when it's needed, otherwise a second instance on the same port should fail to bind rather than
+            // silently take half of the connections
+            if (this.supervised || this.bossThreads > 1)
+                this.bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+        } else {
+            this.bossGroup = new NioEventLoopGroup(this.bossThreads);
+            this.workerGroup = new NioEventLoopGroup(this.workerThreads);
+            this.channelClass = NioServerSocketChannel.class;
+        }
+
+        if (this.throttleRate > 0) {
+            this.connectionThrottle = new ConnectionThrottle(this.throttleRate, this.throttleBurst, this.throttleMaxAddresses,
+                    this.throttleOverflowRate);
+            this.connectionThrottle.startSweeping(this.bossGroup.next());
+        }
+
         this.bootstrap
                 .group(this.bossGroup, this.workerGroup)
-                .channel(NioServerSocketChannel.class)
+                .channel(this.channelClass)
                 .childHandler(new ChannelInitializer<SocketChannel>() {
                     @Override
                     protected void initChannel(SocketChannel socketChannel) throws Exception {
-                        socketChannel.pipeline().addLast("handler", new PacketHandler(MaintenanceServer.this));
+                        // Closed channels are removed from the group by themselves
+                        connections.add(socketChannel);
+                        socketChannel.pipeline().addLast("metrics", metricsHandler);
+
+                        if (connectionThrottle != null)
+                            socketChannel.pipeline().addLast("throttle", connectionThrottle);
+
+                        socketChannel.pipeline()
+                                .addLast("legacy_ping", new LegacyPingHandler(MaintenanceServer.this))
+                                .addLast("frame_decoder", new FrameDecoder())
+                                .addLast("handler", new PacketHandler(MaintenanceServer.this));
                     }
                 })
-                .option(ChannelOption.TCP_NODELAY, true)
-                .option(ChannelOption.SO_KEEPALIVE, true);
-
-        this.options = options;
+                .option(ChannelOption.SO_BACKLOG, this.backlog)
+                .option(ChannelOption.ALLOCATOR, this.allocator)
+                .childOption(ChannelOption.TCP_NODELAY, this.tcpNoDelay)
+                .childOption(ChannelOption.SO_KEEPALIVE, true)
+                .childOption(ChannelOption.ALLOCATOR, this.allocator);
 
-        if (((Boolean) options.valueOf(USE_CONFIG))) {
-            this.propertyHandler = new PropertyHandler(new File(getRoot(), "maintenance-server.properties"));
-            loadProperties();
+        // The options are applied in order, to a channel which starts with the default marks. Netty refuses a high
+        // mark below the current low mark (and the other way around), so lowering starts with the low mark.
+        if (this.writeBufferHighWaterMark < Defaults.WRITE_BUFFER_LOW_WATER_MARK) {
+            this.bootstrap
+                    .childOption(ChannelOption.WRITE_BUFFER_LOW_WATER_MARK, this.writeBufferLowWaterMark)
+                    .childOption(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK, this.writeBufferHighWaterMark);
         } else {
-            loadArgs(options);
+            this.bootstrap
+                    .childOption(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK, this.writeBufferHighWaterMark)
+                    .childOption(ChannelOption.WRITE_BUFFER_LOW_WATER_MARK, this.writeBufferLowWaterMark);
         }
 
+        // Leave the socket buffers to the OS unless they have been configured
+        if (this.receiveBufferSize > 0)
+            this.bootstrap.childOption(ChannelOption.SO_RCVBUF, this.receiveBufferSize);
+
+        if (this.sendBufferSize > 0)
+            this.bootstrap.childOption(ChannelOption.SO_SNDBUF, this.sendBufferSize);
+
+        if (!this.accessLogDirectory.isEmpty())
+            this.accessLog = new AccessLog(new File(getRoot(), this.accessLogDirectory), this.accessLogSegmentSize * 1024L * 1024);
+
+        if (this.loginTrackerSize > 0)
+            this.loginTracker = new LoginTracker(this.loginTrackerSize);
+
+        // A response without the favicon (or profiles), so pings can be answered as soon as we're bound
+        this.createPingResponse();
+        this.createKickPackets();
+
         Runtime.getRuntime().addShutdownHook(new Thread("MaintenanceServer Shutdown Hook") {
             @Override
             public void run() {
@@ -84,113 +277,662 @@ public class MaintenanceServer {
         });
     }
 
+    /**
+     * Starts the console and loads the favicon, status profiles and access lists in the background, in parallel,
+     * so the server can be bound right away. Until they're loaded, pings are answered with the default response.
+     */
     public void start() {
-        long start = System.currentTimeMillis();
+        final long start = System.currentTimeMillis();
+
+        this.consoleManager.startConsole((Boolean) options.valueOf(JLINE));
+        this.consoleManager.startFile((String) options.valueOf(LOG_FILE));
+
+        if (this.accessLog != null) {
+            this.accessLog.start();
+            LOGGER.info("Writing the access log to " + this.accessLogDirectory);
+        }
+
+        if (this.loginTracker != null) {
+            if (this.loginSnapshotInterval > 0) {
+                // Off the event loops, like all other file I/O
+                this.loginSnapshotTask = GlobalEventExecutor.INSTANCE.scheduleAtFixedRate(new Runnable() {
+                    @Override
+                    public void run() {
+                        saveLoginAttempts();
+                    }
+                }, this.loginSnapshotInterval, this.loginSnapshotInterval, TimeUnit.SECONDS);
+            }
+        }
+
+        // The profiles are based on the default response, so they have to wait for the favicon
+        CompletableFuture<Void> status = CompletableFuture.runAsync(new Runnable() {
+            @Override
+            public void run() {
+                handleFavicon();
+                loadStatusProfiles();
+            }
+        });
+
+        CompletableFuture<Void> accessList = CompletableFuture.runAsync(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    loadAccessList();
+                } finally {
+                    accessListLoaded.complete(null);
+                }
+            }
+        });
+
+        CompletableFuture<Void> loginAttempts = CompletableFuture.runAsync(new Runnable() {
+            @Override
+            public void run() {
+                if (loginTracker != null)
+                    loginTracker.load(new File(getRoot(), LOGIN_ATTEMPTS));
+            }
+        });
+
+        CompletableFuture.allOf(status, accessList, loginAttempts).whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void result, Throwable throwable) {
+                if (throwable != null)
+                    LOGGER.warn("Something went wrong while loading the server files", throwable);
+
+                long done = System.currentTimeMillis() - start;
+                LOGGER.info("Done (" + done + "ms)! To stop the server, type \"stop\" or \"halt\"");
+            }
+        });
 
         try {
-            this.handleFavicon();
+            this.fileWatcher = new FileWatcher(this, getRoot().toPath());
+            this.fileWatcher.start();
         } catch (IOException e) {
-            LOGGER.warn("Something went wrong while reading the server-icon!");
+            LOGGER.warn("Failed to watch the server files, changes will require a restart or \"reload\"", e);
         }
 
-        this.consoleManager.startConsole((Boolean) options.valueOf(JLINE));
-        this.consoleManager.startFile((String) options.valueOf(LOG_FILE));
-
-        long done = System.currentTimeMillis() - start;
-        LOGGER.info("Done (" + done + "ms)! To stop the server, type \"stop\" or \"halt\"");
+        if (!this.playerSource.isEmpty()) {
+            try {
+                this.playerCountPoller = new PlayerCountPoller(this, this.playerSource, this.playerPollInterval);
+                this.playerCountPoller.start();
+                LOGGER.info("Reading the player counts from " + this.playerSource + " every " + this.playerPollInterval + "ms");
+            } catch (IllegalArgumentException e) {
+                LOGGER.warn(e.getMessage() + ", using the static player counts");
+            }
+        }
     }
 
     public void bind() {
+        this.addresses = BindAddress.parseList(this.bindAddresses);
+
+        if (this.addresses.isEmpty()) {
+            if (ip.isEmpty()) {
+                this.addresses.add(new BindAddress(new InetSocketAddress(this.port), null));
+            } else {
+                this.addresses.add(new BindAddress(new InetSocketAddress(this.ip, this.port), null));
+            }
+        }
 
-        SocketAddress address;
-        if (ip.isEmpty()) {
-            address = new InetSocketAddress(this.port);
+        for (BindAddress address : this.addresses) {
+            LOGGER.info("Starting a Maintenance Server on " + address + " using the " + (this.epoll ? "epoll" : "NIO") + " transport");
+        }
+
+        if (this.supervised) {
+            if (!this.epoll)
+                LOGGER.warn("Sharing the port requires SO_REUSEPORT (epoll), the port can only be taken over once the real server closes it");
+
+            LOGGER.info("Running supervised, create " + this.takeoverFile + " or type \"takeover\" to start accepting connections");
+            this.updateTakeover();
+        } else if (!this.bindListeners()) {
+            throw new RuntimeException("**** FAILED TO BIND TO " + this.addresses + "! Perhaps a server is already running on that port?");
+        }
+
+        if (this.metricsPort > 0)
+            bindMetrics();
+    }
+
+    /**
+     * Binds the listeners of all addresses. Under epoll they're bound with SO_REUSEPORT, which also lets them share
+     * the port with the real server (as long as it set SO_REUSEPORT as well and runs as the same user).
+     * @return Whether all listeners could be bound, if not, none of them are
+     */
+    private boolean bindListeners() {
+        // With SO_REUSEPORT every boss thread gets its own listening socket, so accepts are spread over all of them
+        int acceptors = this.epoll ? this.bossThreads : 1;
+
+        // All listeners share the same event loops and allocator, an extra address only costs its sockets
+        List<Channel> bound = new ArrayList<>();
+        for (BindAddress address : this.addresses) {
+            ServerBootstrap bootstrap = this.bootstrap;
+            if (address.getProfile() != null)
+                bootstrap = bootstrap.clone().attr(BindAddress.PROFILE, address.getProfile());
+
+            for (int i = 0; i < acceptors; i++) {
+                ChannelFuture future = bootstrap.bind(address.getAddress());
+                Channel channel = future.awaitUninterruptibly().channel();
+
+                if (!channel.isActive()) {
+                    // Closed one by one, this may run on the GlobalEventExecutor the group's futures would need
+                    for (Channel listener : bound) {
+                        listener.close().awaitUninterruptibly();
+                    }
+                    return false;
+                }
+
+                bound.add(channel);
+            }
+        }
+
+        this.serverChannels.addAll(bound);
+        return true;
+    }
+
+    /**
+     * Takes the port over or releases it depending on whether the takeover-file exists
+     */
+    private void updateTakeover() {
+        if (new File(getRoot(), this.takeoverFile).exists()) {
+            this.takeover();
         } else {
-            address = new InetSocketAddress(this.ip, this.port);
+            this.release();
         }
+    }
 
-        LOGGER.info("Starting a Maintenance Server on " + address);
+    /**
+     * Starts accepting connections (when supervised). While the real server still listens with SO_REUSEPORT, the kernel
+     * spreads new connections over both, once it's stopped we get all of them. If it holds the port without
+     * SO_REUSEPORT, binding is retried until it lets go.
+     */
+    public synchronized void takeover() {
+        if (this.takenOver || this.stopped.get())
+            return;
 
-        ChannelFuture future = this.bootstrap.bind(address);
-        Channel channel = future.awaitUninterruptibly().channel();
+        LOGGER.info("Taking over " + this.addresses);
+        this.takenOver = true;
+        this.tryTakeover(true);
+    }
+
+    private synchronized void tryTakeover(boolean first) {
+        // Released or stopped while waiting, or done already
+        if (!this.takenOver || this.stopped.get() || !this.serverChannels.isEmpty())
+            return;
 
-        if (!channel.isActive()) {
-            throw new RuntimeException("**** FAILED TO BIND TO PORT! Perhaps a server is already running on that port?");
+        if (this.bindListeners()) {
+            LOGGER.info("Accepting connections on " + this.addresses);
+            return;
+        }
+
+        if (first)
+            LOGGER.info("The port is in use without SO_REUSEPORT, retrying until it's released");
+
+        GlobalEventExecutor.INSTANCE.schedule(new Runnable() {
+            @Override
+            public void run() {
+                tryTakeover(false);
+            }
+        }, TAKEOVER_RETRY_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops accepting connections (when supervised) so the real server gets all of them, connections that are
+     * already open are left alone. Connections still waiting in our accept queue are reset by the kernel, unless
+     * it's told to migrate them (net.ipv4.tcp_migrate_req, Linux 5.14+).
+     */
+    public synchronized void release() {
+        if (!this.takenOver)
+            return;
+
+        this.takenOver = false;
+        this.serverChannels.close().awaitUninterruptibly();
+        LOGGER.info("Released " + this.addresses);
+    }
+
+    /**
+     * Starts the HTTP endpoint serving the metrics, on the same event loops as the server itself
+     */
+    private void bindMetrics() {
+        SocketAddress address = new InetSocketAddress(this.metricsIp, this.metricsPort);
+        LOGGER.info("Serving metrics on http://" + this.metricsIp + ":" + this.metricsPort + "/metrics");
+
+        ServerBootstrap metricsBootstrap = new ServerBootstrap()
+                .group(this.bossGroup, this.workerGroup)
+                .channel(this.channelClass)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel socketChannel) throws Exception {
+                        socketChannel.pipeline()
+                                .addLast("codec", new HttpServerCodec())
+                                .addLast("handler", new MetricsHttpHandler(MaintenanceServer.this));
+                    }
+                });
+
+        this.metricsChannel = metricsBootstrap.bind(address).awaitUninterruptibly().channel();
+        if (!this.metricsChannel.isActive()) {
+            LOGGER.warn("Failed to bind the metrics endpoint to " + address);
         }
     }
 
     public void stop() {
+        this.stop(this.shutdownTimeout);
+    }
+
+    /**
+     * Stops accepting connections, gives the open connections the given time to finish, closes whatever is
+     * left and shuts the event loops down
+     * @param drainTimeout In milliseconds
+     */
+    public void stop(long drainTimeout) {
+        // Both the stop command and the shutdown hook end up here
+        if (!this.stopped.compareAndSet(false, true))
+            return;
+
+        long start = System.currentTimeMillis();
         LOGGER.info("Stopping server");
+
+        synchronized (this) {
+            this.takenOver = false;
+            this.serverChannels.close().awaitUninterruptibly();
+        }
+
+        if (this.metricsChannel != null)
+            this.metricsChannel.close().awaitUninterruptibly();
+
+        // Open connections are all just a ping or a kick away from being done
+        long deadline = start + drainTimeout;
+        while (!this.connections.isEmpty() && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        if (!this.connections.isEmpty()) {
+            LOGGER.info("Closing " + this.connections.size() + " connections that didn't finish in time");
+            this.connections.close().awaitUninterruptibly();
+        }
+
+        if (this.fileWatcher != null)
+            this.fileWatcher.close();
+
+        if (this.playerCountPoller != null)
+            this.playerCountPoller.close();
+
+        // Only once all connections are gone, so their events are in it
+        if (this.accessLog != null)
+            this.accessLog.close();
+
+        // The GlobalEventExecutor's thread isn't a daemon, it would keep the JVM alive as long as this is scheduled
+        if (this.loginSnapshotTask != null)
+            this.loginSnapshotTask.cancel(false);
+
+        if (this.loginTracker != null)
+            this.saveLoginAttempts();
+
+        // Nothing is running anymore, so there's no need for a quiet period
+        this.workerGroup.shutdownGracefully(0, drainTimeout, TimeUnit.MILLISECONDS).awaitUninterruptibly();
+        this.bossGroup.shutdownGracefully(0, drainTimeout, TimeUnit.MILLISECONDS).awaitUninterruptibly();
+
+        LOGGER.info("Stopped (" + (System.currentTimeMillis() - start) + "ms)");
         this.consoleManager.stop();
-        this.workerGroup.shutdownGracefully();
-        this.bossGroup.shutdownGracefully();
     }
 
     private void loadProperties() {
         LOGGER.info("Loading properties");
         // This will create the default properties...
+        this.loadStatusProperties();
+
+        this.port = this.propertyHandler.getInt(PORT, Defaults.PORT);
+        this.ip = this.propertyHandler.getString(IP, Defaults.IP);
+        this.bindAddresses = this.propertyHandler.getString(BIND_ADDRESSES, Defaults.BIND_ADDRESSES);
+        this.supervised = this.propertyHandler.getBoolean(SUPERVISED, Defaults.SUPERVISED);
+        this.takeoverFile = this.propertyHandler.getString(TAKEOVER_FILE, Defaults.TAKEOVER_FILE);
+
+        this.useEpoll = this.propertyHandler.getBoolean(USE_EPOLL, Defaults.USE_EPOLL);
+        this.bossThreads = this.propertyHandler.getInt(BOSS_THREADS, Defaults.BOSS_THREADS);
+        this.workerThreads = this.propertyHandler.getInt(WORKER_THREADS, Defaults.WORKER_THREADS);
+
+        this.backlog = this.propertyHandler.getInt(BACKLOG, Defaults.BACKLOG);
+        this.tcpNoDelay = this.propertyHandler.getBoolean(TCP_NO_DELAY, Defaults.TCP_NO_DELAY);
+        this.receiveBufferSize = this.propertyHandler.getInt(RECEIVE_BUFFER_SIZE, Defaults.RECEIVE_BUFFER_SIZE);
+        this.sendBufferSize = this.propertyHandler.getInt(SEND_BUFFER_SIZE, Defaults.SEND_BUFFER_SIZE);
+        this.writeBufferHighWaterMark = this.propertyHandler.getInt(WRITE_BUFFER_HIGH_WATER_MARK, Defaults.WRITE_BUFFER_HIGH_WATER_MARK);
+        this.writeBufferLowWaterMark = this.propertyHandler.getInt(WRITE_BUFFER_LOW_WATER_MARK, Defaults.WRITE_BUFFER_LOW_WATER_MARK);
+
+        this.metricsPort = this.propertyHandler.getInt(METRICS_PORT, Defaults.METRICS_PORT);
+        this.metricsIp = this.propertyHandler.getString(METRICS_IP, Defaults.METRICS_IP);
+
+        this.handshakeTimeout = this.propertyHandler.getInt(HANDSHAKE_TIMEOUT, Defaults.HANDSHAKE_TIMEOUT);
+        this.stateTimeout = this.propertyHandler.getInt(STATE_TIMEOUT, Defaults.STATE_TIMEOUT);
+        this.connectionTimeout = this.propertyHandler.getInt(CONNECTION_TIMEOUT, Defaults.CONNECTION_TIMEOUT);
+        this.shutdownTimeout = this.propertyHandler.getInt(SHUTDOWN_TIMEOUT, Defaults.SHUTDOWN_TIMEOUT);
+
+        this.accessLogDirectory = this.propertyHandler.getString(ACCESS_LOG, Defaults.ACCESS_LOG);
+        this.accessLogSegmentSize = this.propertyHandler.getInt(ACCESS_LOG_SEGMENT_SIZE, Defaults.ACCESS_LOG_SEGMENT_SIZE);
+
+        this.loginTrackerSize = this.propertyHandler.getInt(LOGIN_TRACKER_SIZE, Defaults.LOGIN_TRACKER_SIZE);
+        this.loginSnapshotInterval = this.propertyHandler.getInt(LOGIN_SNAPSHOT_INTERVAL, Defaults.LOGIN_SNAPSHOT_INTERVAL);
+
+        this.throttleRate = this.propertyHandler.getInt(THROTTLE_RATE, Defaults.THROTTLE_RATE);
+        this.throttleBurst = this.propertyHandler.getInt(THROTTLE_BURST, Defaults.THROTTLE_BURST);
+        this.throttleMaxAddresses = this.propertyHandler.getInt(THROTTLE_MAX_ADDRESSES, Defaults.THROTTLE_MAX_ADDRESSES);
+        this.throttleOverflowRate = this.propertyHandler.getInt(THROTTLE_OVERFLOW_RATE, Defaults.THROTTLE_OVERFLOW_RATE);
+
+        this.pooledBuffers = this.propertyHandler.getBoolean(POOLED_BUFFERS, Defaults.POOLED_BUFFERS);
+        this.directBuffers = this.propertyHandler.getBoolean(DIRECT_BUFFERS, Defaults.DIRECT_BUFFERS);
+    }
+
+    /**
+     * Replaces the options that can't work with their defaults
+     */
+    private void validateOptions() {
+        // Every boss thread binds a listener, without any the server would never accept a connection
+        if (this.bossThreads < 1) {
+            LOGGER.warn(BOSS_THREADS + " must be at least 1, using " + Defaults.BOSS_THREADS);
+            this.bossThreads = Defaults.BOSS_THREADS;
+        }
+
+        if (this.writeBufferLowWaterMark < 0 || this.writeBufferLowWaterMark > this.writeBufferHighWaterMark) {
+            LOGGER.warn(WRITE_BUFFER_LOW_WATER_MARK + " must be between 0 and " + WRITE_BUFFER_HIGH_WATER_MARK + ", using "
+                    + Defaults.WRITE_BUFFER_LOW_WATER_MARK + " and " + Defaults.WRITE_BUFFER_HIGH_WATER_MARK);
+            this.writeBufferLowWaterMark = Defaults.WRITE_BUFFER_LOW_WATER_MARK;
+            this.writeBufferHighWaterMark = Defaults.WRITE_BUFFER_HIGH_WATER_MARK;
+        }
+
+        // The segments are memory-mapped, which only works below 2 GB
+        if (this.accessLogSegmentSize < 1 || this.accessLogSegmentSize > 2047) {
+            LOGGER.warn(ACCESS_LOG_SEGMENT_SIZE + " must be between 1 and 2047 (megabytes), using " + Defaults.ACCESS_LOG_SEGMENT_SIZE);
+            this.accessLogSegmentSize = Defaults.ACCESS_LOG_SEGMENT_SIZE;
+        }
+    }
+
+    /**
+     * Loads the properties that can be changed while the server is running
+     */
+    private void loadStatusProperties() {
         this.protocolVersion = this.propertyHandler.getInt(PROTOCOL, Defaults.PROTOCOL);
         this.serverVersion = this.propertyHandler.getString(VERSION, Defaults.VERSION);
         this.onlinePlayers = this.propertyHandler.getInt(ONLINE_PLAYERS, Defaults.ONLINE_PLAYERS);
         this.maxOnlinePlayers = this.propertyHandler.getInt(MAX_ONLINE, Defaults.MAX_ONLINE_PLAYERS);
+        this.playerSource = this.propertyHandler.getString(PLAYER_SOURCE, Defaults.PLAYER_SOURCE);
+        this.playerPollInterval = this.propertyHandler.getInt(PLAYER_POLL_INTERVAL, Defaults.PLAYER_POLL_INTERVAL);
         this.motd = this.propertyHandler.getString(MOTD, Defaults.MOTD);
-        this.kickMessageBanned = this.propertyHandler.getString(KICK_MESSAGE, Defaults.KICK_MESSAGE);
+        this.defaultKickMessage = this.propertyHandler.getString(KICK_MESSAGE, Defaults.KICK_MESSAGE);
         this.kickMessageNotOnWhiteList = this.propertyHandler.getString(KICK_MESSAGE_NOT_ON_WHITELIST, Defaults.KICK_MESSAGE_NOT_ON_WHITELIST);
         this.kickMessageBanned = this.propertyHandler.getString(KICK_MESSAGE_BANNED, Defaults.KICK_MESSAGE_BANNED);
-
-        this.port = this.propertyHandler.getInt(PORT, Defaults.PORT);
-        this.ip = this.propertyHandler.getString(IP, Defaults.IP);
+        this.whitelistEnabled = this.propertyHandler.getBoolean(USE_WHITELIST, Defaults.USE_WHITELIST);
     }
 
     private void loadArgs(OptionSet set) {
         this.port = (int) set.valueOf(PORT);
         this.ip = (String) set.valueOf(IP);
+        this.bindAddresses = (String) set.valueOf(BIND_ADDRESSES);
+        this.supervised = (boolean) set.valueOf(SUPERVISED);
+        this.takeoverFile = (String) set.valueOf(TAKEOVER_FILE);
         this.protocolVersion = (int) set.valueOf(PROTOCOL);
         this.serverVersion = (String) set.valueOf(VERSION);
         this.onlinePlayers = (int) set.valueOf(ONLINE_PLAYERS);
         this.maxOnlinePlayers = (int) set.valueOf(MAX_ONLINE);
+        this.playerSource = (String) set.valueOf(PLAYER_SOURCE);
+        this.playerPollInterval = (int) set.valueOf(PLAYER_POLL_INTERVAL);
         this.motd = (String) set.valueOf(MOTD);
         this.defaultKickMessage = (String) set.valueOf(KICK_MESSAGE);
         this.kickMessageBanned = (String) set.valueOf(KICK_MESSAGE_BANNED);
         this.kickMessageNotOnWhiteList = (String) set.valueOf(KICK_MESSAGE_NOT_ON_WHITELIST);
+        this.whitelistEnabled = (boolean) set.valueOf(USE_WHITELIST);
+        this.useEpoll = (boolean) set.valueOf(USE_EPOLL);
+        this.bossThreads = (int) set.valueOf(BOSS_THREADS);
+        this.workerThreads = (int) set.valueOf(WORKER_THREADS);
+        this.backlog = (int) set.valueOf(BACKLOG);
+        this.tcpNoDelay = (boolean) set.valueOf(TCP_NO_DELAY);
+        this.receiveBufferSize = (int) set.valueOf(RECEIVE_BUFFER_SIZE);
+        this.sendBufferSize = (int) set.valueOf(SEND_BUFFER_SIZE);
+        this.writeBufferHighWaterMark = (int) set.valueOf(WRITE_BUFFER_HIGH_WATER_MARK);
+        this.writeBufferLowWaterMark = (int) set.valueOf(WRITE_BUFFER_LOW_WATER_MARK);
+        this.metricsPort = (int) set.valueOf(METRICS_PORT);
+        this.metricsIp = (String) set.valueOf(METRICS_IP);
+        this.handshakeTimeout = (int) set.valueOf(HANDSHAKE_TIMEOUT);
+        this.stateTimeout = (int) set.valueOf(STATE_TIMEOUT);
+        this.connectionTimeout = (int) set.valueOf(CONNECTION_TIMEOUT);
+        this.shutdownTimeout = (int) set.valueOf(SHUTDOWN_TIMEOUT);
+        this.accessLogDirectory = (String) set.valueOf(ACCESS_LOG);
+        this.accessLogSegmentSize = (int) set.valueOf(ACCESS_LOG_SEGMENT_SIZE);
+        this.loginTrackerSize = (int) set.valueOf(LOGIN_TRACKER_SIZE);
+        this.loginSnapshotInterval = (int) set.valueOf(LOGIN_SNAPSHOT_INTERVAL);
+        this.throttleRate = (int) set.valueOf(THROTTLE_RATE);
+        this.throttleBurst = (int) set.valueOf(THROTTLE_BURST);
+        this.throttleMaxAddresses = (int) set.valueOf(THROTTLE_MAX_ADDRESSES);
+        this.throttleOverflowRate = (int) set.valueOf(THROTTLE_OVERFLOW_RATE);
+        this.pooledBuffers = (boolean) set.valueOf(POOLED_BUFFERS);
+        this.directBuffers = (boolean) set.valueOf(DIRECT_BUFFERS);
+    }
 
+    private void loadAccessList() {
+        File root = getRoot();
+        this.accessList = AccessList.load(new File(root, BANNED_PLAYERS), new File(root, BANNED_IPS), new File(root, WHITELIST), this.accessList);
     }
 
-    private void handleFavicon() throws IOException {
-        File favicon = new File("server-icon.png");
-        if (favicon.exists()) {
-            BufferedImage image = ImageIO.read(favicon);
+    private void handleFavicon() {
+        String encoded = loadFavicon(new File(getRoot(), FAVICON));
 
-            if (image.getWidth() != 64 || image.getHeight() != 64) {
-                LOGGER.warn("Found a server-icon.png but it has an illegal size! Please make sure your server-icon is 64x64");
+        synchronized (this) {
+            // The cache hands out the same String for the same icon, so there's nothing to rebuild
+            if (encoded == this.favicon && this.pingResponse != null)
                 return;
+
+            this.favicon = encoded;
+            this.createPingResponse();
+        }
+    }
+
+    /**
+     * Reads the given favicon as a data URI, or returns null if it doesn't exist or isn't valid
+     * @param favicon
+     * @return
+     */
+    protected String loadFavicon(File favicon) {
+        return this.faviconCache.load(favicon);
+    }
+
+    /**
+     * (Re)loads the status profiles, which are based on the current ping response. The new profiles are encoded
+     * and swapped in before the previous ones are released.
+     */
+    private synchronized void loadStatusProfiles() {
+        setStatusProfiles(StatusProfiles.load(new File(getRoot(), STATUS_PROFILES), getPingResponse(), this, this.statusProfiles));
+    }
+
+    /**
+     * Builds the current status profiles again from the current ping response, without reading any files
+     */
+    private synchronized void rebuildStatusProfiles() {
+        setStatusProfiles(this.statusProfiles.withDefaults(getPingResponse()));
+    }
+
+    /**
+     * Encodes the given profiles and swaps them in before the previous ones are released
+     * @param profiles
+     */
+    private void setStatusProfiles(StatusProfiles profiles) {
+        for (StatusProfile profile : profiles.getProfiles()) {
+            profile.setStatusPacket(createStatusPacket(profile.getPingResponse()));
+        }
+
+        StatusProfiles old = this.statusProfiles;
+        this.statusProfiles = profiles;
+
+        for (StatusProfile profile : old.getProfiles()) {
+            profile.release();
+        }
+    }
+
+    /**
+     * Reloads whatever depends on the given (changed) files. Called from the FileWatcher, never from the event loop.
+     * @param fileNames
+     */
+    protected void handleFileChanges(Collection<String> fileNames) {
+        // The profiles are based on the default status, and may have favicons of their own
+        boolean reloadProfiles = fileNames.contains(STATUS_PROFILES);
+
+        if (this.propertyHandler != null && fileNames.contains(PROPERTIES)) {
+            LOGGER.info("Reloading properties");
+            this.propertyHandler.loadProperties();
+
+            synchronized (this) {
+                this.loadStatusProperties();
+                this.createPingResponse();
+                this.createKickPackets();
             }
+            reloadProfiles = true;
+        }
+
+        if (fileNames.contains(FAVICON)) {
+            LOGGER.info("Reloading the server-icon");
+            this.handleFavicon();
+        }
+
+        for (String fileName : fileNames) {
+            if (fileName.endsWith(".png"))
+                reloadProfiles = true;
+        }
 
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            ImageIO.write(image, "png", outputStream);
-            if (this.pingResponse == null)
-                createPingResponse();
+        if (reloadProfiles) {
+            LOGGER.info("Reloading the status profiles");
+            this.loadStatusProfiles();
+        }
 
-            this.pingResponse.put("favicon", "data:image/png;base64," + DatatypeConverter.printBase64Binary(outputStream.toByteArray()));
+        if (fileNames.contains(BANNED_PLAYERS) || fileNames.contains(BANNED_IPS) || fileNames.contains(WHITELIST)) {
+            LOGGER.info("Reloading the whitelist and ban lists");
+            this.loadAccessList();
         }
+
+        if (this.supervised && fileNames.contains(this.takeoverFile))
+            this.updateTakeover();
+    }
+
+    /**
+     * Swaps in the given live player counts and rebuilds the status packets. Called from the PlayerCountPoller,
+     * only when the counts changed.
+     * @param counts
+     */
+    protected void updatePlayerCounts(PlayerCounts counts) {
+        synchronized (this) {
+            this.playerCounts = counts;
+            this.createPingResponse();
+        }
+
+        // The profiles are copies of the default response, so they need the new counts too
+        if (!this.statusProfiles.getProfiles().isEmpty())
+            this.rebuildStatusProfiles();
+    }
+
+    private int getOnlinePlayers() {
+        PlayerCounts counts = this.playerCounts;
+        return counts == null ? this.onlinePlayers : counts.getOnline();
     }
 
-    private void createPingResponse() {
-        this.pingResponse = new JSONObject();
+    private int getMaxOnlinePlayers() {
+        PlayerCounts counts = this.playerCounts;
+        return counts == null || counts.getMax() == 0 ? this.maxOnlinePlayers : counts.getMax();
+    }
+
+    /**
+     * Builds a new ping response and swaps it in, together with its encoded StatusResponse packet
+     */
+    private synchronized void createPingResponse() {
+        JSONObject pingResponse = new JSONObject();
 
         JSONObject version = new JSONObject();
         version.put("name", this.serverVersion);
         version.put("protocol", this.protocolVersion);
-        this.pingResponse.put("version", version);
+        pingResponse.put("version", version);
 
         JSONObject players = new JSONObject();
-        players.put("max", this.maxOnlinePlayers);
-        players.put("online", this.onlinePlayers);
-        this.pingResponse.put("players", players);
+        players.put("max", this.getMaxOnlinePlayers());
+        players.put("online", this.getOnlinePlayers());
+
+        JSONArray sample = this.playerCounts == null ? null : this.playerCounts.toSample();
+        if (sample != null)
+            players.put("sample", sample);
+        pingResponse.put("players", players);
+
+        pingResponse.put("description", ChatFormatter.toComponent(this.motd));
+
+        if (this.favicon != null)
+            pingResponse.put("favicon", this.favicon);
+
+        this.pingResponse = pingResponse;
+        this.updateStatusPacket();
+    }
+
+    /**
+     * Serializes the current ping response into a StatusResponse packet (and the legacy ping responses)
+     * and swaps them in for the previous ones. Should be called whenever the ping response changes.
+     */
+    private synchronized void updateStatusPacket() {
+        this.statusPacket.set(createStatusPacket(this.pingResponse));
+
+        // Legacy clients can't handle the section sign in the motd, it's used as the delimiter
+        String motd = ChatFormatter.toPlainText(this.motd).replace("\u00A7", "");
+
+        // Beta 1.8 - 1.3: motd, online and max separated by section signs
+        this.legacyPingPacket.set(createLegacyKickPacket(motd + "\u00A7" + this.getOnlinePlayers() + "\u00A7" + this.getMaxOnlinePlayers()));
+
+        // 1.4 - 1.6: "\u00A71", protocol, version, motd, online and max separated by NUL characters
+        this.legacyStatusPacket.set(createLegacyKickPacket("\u00A71\0" + this.protocolVersion + "\0" + this.serverVersion
+                + "\0" + motd + "\0" + this.getOnlinePlayers() + "\0" + this.getMaxOnlinePlayers()));
+    }
+
+    /**
+     * Compiles the kick messages into Disconnect packets and swaps them in for the previous ones
+     */
+    private synchronized void createKickPackets() {
+        this.kickPacket.set(createDisconnectPacket(this.defaultKickMessage));
+        this.kickPacketBanned.set(createDisconnectPacket(this.kickMessageBanned));
+        this.kickPacketNotOnWhiteList.set(createDisconnectPacket(this.kickMessageNotOnWhiteList));
+    }
+
+    /**
+     * Encodes the given ping response as a StatusResponse packet
+     * @param pingResponse
+     * @return
+     */
+    private ByteBuf createStatusPacket(JSONObject pingResponse) {
+        return createJsonPacket(pingResponse);
+    }
+
+    /**
+     * Encodes the given message as a (login) Disconnect packet
+     * @param message
+     * @return
+     */
+    private ByteBuf createDisconnectPacket(String message) {
+        return createJsonPacket(ChatFormatter.toComponent(message));
+    }
 
-        JSONObject description = new JSONObject();
-        description.put("text", this.motd);
-        this.pingResponse.put("description", description);
+    /**
+     * Both the StatusResponse and the Disconnect packet are packet 0x0 with a single JSON string. The packet
+     * is framed (prefixed with its length) already, so it can be written as is.
+     * @param object
+     * @return
+     */
+    private ByteBuf createJsonPacket(JSONObject object) {
+        return ByteBufUtils.createStringPacket(this.allocator, 0x0, object.toString());
+    }
+
+    /**
+     * Creates a pre-1.7 kick packet (0xFF), which is what legacy clients expect as ping response
+     * @param message
+     * @return
+     */
+    private ByteBuf createLegacyKickPacket(String message) {
+        ByteBuf packet = this.allocator.buffer(3 + message.length() * 2);
+        packet.writeByte(0xFF);
+        packet.writeShort(message.length());
+        for (int i = 0; i < message.length(); i++) {
+            packet.writeChar(message.charAt(i));
+        }
+        return packet;
     }
 
     public JSONObject getPingResponse() {
@@ -200,13 +942,253 @@ public class MaintenanceServer {
         return this.pingResponse;
     }
 
+    /**
+     * Returns the pre-encoded StatusResponse packet. The returned buffer is a read-only, retained
+     * duplicate of the event loop's copy of the packet and is released once it has been written to the channel.
+     * @param executor The event loop of the channel the packet is written to
+     * @return
+     */
+    public ByteBuf getStatusPacket(EventExecutor executor) {
+        if (!this.statusPacket.isSet())
+            createPingResponse();
+
+        return this.statusPacket.duplicate(executor);
+    }
+
+    /**
+     * Returns the pre-encoded StatusResponse packet of the given profile, or if there is no such profile,
+     * of the profile matching the given handshake (and the default one if none matches)
+     * @param executor The event loop of the channel the packet is written to
+     * @param profileName The name of the profile of the address the client connected to, or null
+     * @param host The hostname the client connected with
+     * @param protocolVersion The protocol version of the client
+     * @return
+     */
+    public ByteBuf getStatusPacket(EventExecutor executor, String profileName, String host, int protocolVersion) {
+        while (true) {
+            StatusProfiles profiles = this.statusProfiles;
+
+            StatusProfile profile = profileName == null ? null : profiles.get(profileName);
+            if (profile == null)
+                profile = profiles.get(host, protocolVersion);
+
+            if (profile == null)
+                return getStatusPacket(executor);
+
+            ByteBuf packet = profile.getStatusPacket(executor);
+            if (packet != null)
+                return packet;
+
+            // The profiles got reloaded in the meantime, look the profile up again
+        }
+    }
+
+    /**
+     * Returns the pre-encoded ping response for Beta 1.8 - 1.3 clients
+     * @param executor The event loop of the channel the packet is written to
+     * @return
+     */
+    public ByteBuf getLegacyPingPacket(EventExecutor executor) {
+        if (!this.legacyPingPacket.isSet())
+            createPingResponse();
+
+        return this.legacyPingPacket.duplicate(executor);
+    }
+
+    /**
+     * Returns the pre-encoded ping response for 1.4 - 1.6 clients
+     * @param executor The event loop of the channel the packet is written to
+     * @return
+     */
+    public ByteBuf getLegacyStatusPacket(EventExecutor executor) {
+        if (!this.legacyStatusPacket.isSet())
+            createPingResponse();
+
+        return this.legacyStatusPacket.duplicate(executor);
+    }
+
     public String getKickMessage() {
         return this.defaultKickMessage;
     }
 
+    /**
+     * Returns the pre-encoded Disconnect packet with the default kick message
+     * @param executor The event loop of the channel the packet is written to
+     * @return
+     */
+    public ByteBuf getKickPacket(EventExecutor executor) {
+        if (!this.kickPacket.isSet())
+            createKickPackets();
+
+        return this.kickPacket.duplicate(executor);
+    }
+
+    /**
+     * Returns the pre-encoded Disconnect packet with the kick message for banned players
+     * @param executor The event loop of the channel the packet is written to
+     * @return
+     */
+    public ByteBuf getKickPacketBanned(EventExecutor executor) {
+        if (!this.kickPacketBanned.isSet())
+            createKickPackets();
+
+        return this.kickPacketBanned.duplicate(executor);
+    }
+
+    /**
+     * Returns the pre-encoded Disconnect packet with the kick message for players that aren't whitelisted
+     * @param executor The event loop of the channel the packet is written to
+     * @return
+     */
+    public ByteBuf getKickPacketNotOnWhiteList(EventExecutor executor) {
+        if (!this.kickPacketNotOnWhiteList.isSet())
+            createKickPackets();
+
+        return this.kickPacketNotOnWhiteList.duplicate(executor);
+    }
+
+    public String getKickMessageBanned() {
+        return this.kickMessageBanned;
+    }
+
+    public String getKickMessageNotOnWhiteList() {
+        return this.kickMessageNotOnWhiteList;
+    }
+
+    public boolean isWhitelistEnabled() {
+        return this.whitelistEnabled;
+    }
+
+    public Metrics getMetrics() {
+        return this.metrics;
+    }
+
+    public int getHandshakeTimeout() {
+        return this.handshakeTimeout;
+    }
+
+    public int getStateTimeout() {
+        return this.stateTimeout;
+    }
+
+    public int getConnectionTimeout() {
+        return this.connectionTimeout;
+    }
+
+    /**
+     * Returns the ConnectionThrottle, or null if throttling is disabled
+     * @return
+     */
+    public ConnectionThrottle getConnectionThrottle() {
+        return this.connectionThrottle;
+    }
+
+    /**
+     * Writes the players that tried to join to login-attempts.json, if anyone tried since the last time
+     */
+    private void saveLoginAttempts() {
+        long attempts = this.loginTracker.getAttempts();
+        if (attempts == this.savedLoginAttempts)
+            return;
+
+        try {
+            this.loginTracker.save(new File(getRoot(), LOGIN_ATTEMPTS));
+            this.savedLoginAttempts = attempts;
+        } catch (IOException e) {
+            LOGGER.warn("Failed to save the players that tried to join", e);
+        }
+    }
+
+    /**
+     * Returns the LoginTracker, or null if it's disabled
+     * @return
+     */
+    public LoginTracker getLoginTracker() {
+        return this.loginTracker;
+    }
+
+    /**
+     * Returns the AccessLog, or null if it's disabled
+     * @return
+     */
+    public AccessLog getAccessLog() {
+        return this.accessLog;
+    }
+
+    public AccessList getAccessList() {
+        return this.accessList;
+    }
+
+    /**
+     * Returns a future that completes once the access list has been loaded at startup. Until then,
+     * {@link #getAccessList()} returns an empty list.
+     * @return
+     */
+    public CompletableFuture<Void> getAccessListLoaded() {
+        return this.accessListLoaded;
+    }
+
     protected void handleCommand(String command) {
-        if (command.equalsIgnoreCase("stop") || command.equalsIgnoreCase("halt"))
+        if (command.equalsIgnoreCase("stop")) {
             this.stop();
+        } else if (command.equalsIgnoreCase("halt")) {
+            // Don't wait for the open connections
+            this.stop(0);
+        } else if (command.equalsIgnoreCase("stats")) {
+            LOGGER.info(this.metrics.toSummary());
+            if (this.connectionThrottle != null)
+                LOGGER.info("Throttled connections: " + this.connectionThrottle.getRejectedConnections()
+                        + " (" + this.connectionThrottle.getTrackedAddresses() + " addresses tracked)");
+            if (this.accessLog != null)
+                LOGGER.info("Access log: " + this.accessLog.getWrittenRecords() + " events written, "
+                        + this.accessLog.getDroppedRecords() + " dropped");
+        } else if (command.equalsIgnoreCase("joins") || command.regionMatches(true, 0, "joins ", 0, 6)) {
+            this.listLoginAttempts(command.substring("joins".length()).trim());
+        } else if (command.equalsIgnoreCase("takeover")) {
+            if (this.supervised) {
+                this.takeover();
+            } else {
+                LOGGER.info("The server isn't supervised, it's always accepting connections");
+            }
+        } else if (command.equalsIgnoreCase("release")) {
+            if (this.supervised) {
+                this.release();
+            } else {
+                LOGGER.info("The server isn't supervised, use \"stop\" instead");
+            }
+        } else if (command.equalsIgnoreCase("reload")) {
+            this.handleFileChanges(Arrays.asList(PROPERTIES, FAVICON, BANNED_PLAYERS, STATUS_PROFILES));
+        }
+    }
+
+    /**
+     * Lists the players that tried to join the most
+     * @param count The amount of players to list, 10 if it's empty
+     */
+    private void listLoginAttempts(String count) {
+        if (this.loginTracker == null) {
+            LOGGER.info("Players that try to join aren't tracked, see " + LOGIN_TRACKER_SIZE);
+            return;
+        }
+
+        int top = 10;
+        try {
+            if (!count.isEmpty())
+                top = Integer.parseInt(count);
+        } catch (NumberFormatException e) {
+            LOGGER.info("Usage: joins [amount]");
+            return;
+        }
+
+        List<LoginTracker.Attempt> attempts = this.loginTracker.getTop(top);
+        LOGGER.info(this.loginTracker.getAttempts() + " attempts to join, the top " + attempts.size() + ":");
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        for (LoginTracker.Attempt attempt : attempts) {
+            LOGGER.info(String.format("  %-16s ~%-6d from %s, last at %s", attempt.getName(),
+                    this.loginTracker.estimate(attempt.getName()), attempt.getAddress().getHostAddress(),
+                    dateFormat.format(new Date(attempt.getLastSeen()))));
+        }
     }
 
     public File getRoot() {
@@ -0,0 +1,187 @@
+package com.captainbern.mserver;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and histograms describing what the server is doing. Everything is recorded into
+ * LongAdders that are allocated up front, so recording never allocates or contends on a lock.
+ */
+public class Metrics {
+
+    /**
+     * Opcodes above this are counted together in the last slot
+     */
+    private static final int MAX_OPCODE = 3;
+
+    private static final PacketHandler.Protocol[] PROTOCOLS = PacketHandler.Protocol.values();
+
+    private final LongAdder[][] packets = new LongAdder[PROTOCOLS.length][MAX_OPCODE + 1];
+
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder activeConnections = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+
+    private final LongAdder legacyPings = new LongAdder();
+    private final LongAdder kicksMaintenance = new LongAdder();
+    private final LongAdder kicksBanned = new LongAdder();
+    private final LongAdder kicksNotWhitelisted = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    private final LatencyHistogram responseLatency = new LatencyHistogram();
+    private final LatencyHistogram packetHandlingTime = new LatencyHistogram();
+
+    public Metrics() {
+        for (int i = 0; i < this.packets.length; i++) {
+            for (int j = 0; j < this.packets[i].length; j++) {
+                this.packets[i][j] = new LongAdder();
+            }
+        }
+    }
+
+    public void recordPacket(PacketHandler.Protocol protocol, int opcode) {
+        this.packets[protocol.ordinal()][Math.min(MAX_OPCODE, Math.max(0, opcode))].increment();
+    }
+
+    public void recordConnectionOpened() {
+        this.connections.increment();
+        this.activeConnections.increment();
+    }
+
+    public void recordConnectionClosed() {
+        this.activeConnections.decrement();
+    }
+
+    public void recordBytesIn(int bytes) {
+        this.bytesIn.add(bytes);
+    }
+
+    public void recordBytesOut(int bytes) {
+        this.bytesOut.add(bytes);
+    }
+
+    public void recordLegacyPing() {
+        this.legacyPings.increment();
+    }
+
+    public void recordKickMaintenance() {
+        this.kicksMaintenance.increment();
+    }
+
+    public void recordKickBanned() {
+        this.kicksBanned.increment();
+    }
+
+    public void recordKickNotWhitelisted() {
+        this.kicksNotWhitelisted.increment();
+    }
+
+    public void recordTimeout() {
+        this.timeouts.increment();
+    }
+
+    public void recordError() {
+        this.errors.increment();
+    }
+
+    /**
+     * The time between receiving a handshake and writing the status response or kick message
+     * @return
+     */
+    public LatencyHistogram getResponseLatency() {
+        return this.responseLatency;
+    }
+
+    /**
+     * The time spent handling a single packet
+     * @return
+     */
+    public LatencyHistogram getPacketHandlingTime() {
+        return this.packetHandlingTime;
+    }
+
+    public long getActiveConnections() {
+        return this.activeConnections.sum();
+    }
+
+    /**
+     * Renders all metrics in the Prometheus text exposition format
+     * @param throttle The ConnectionThrottle, or null if throttling is disabled
+     * @return
+     */
+    public String toPrometheus(ConnectionThrottle throttle) {
+        StringBuilder builder = new StringBuilder(8192);
+
+        builder.append("# HELP mserver_packets_total Packets received, by protocol state and opcode\n");
+        builder.append("# TYPE mserver_packets_total counter\n");
+        for (int i = 0; i < this.packets.length; i++) {
+            for (int j = 0; j < this.packets[i].length; j++) {
+                long count = this.packets[i][j].sum();
+                if (count == 0)
+                    continue;
+
+                builder.append("mserver_packets_total{state=\"").append(PROTOCOLS[i].name().toLowerCase())
+                        .append("\",opcode=\"").append(j == MAX_OPCODE ? "other" : "" + j).append("\"} ")
+                        .append(count).append('\n');
+            }
+        }
+
+        writeCounter(builder, "mserver_connections_total", "Connections accepted", this.connections.sum());
+        writeGauge(builder, "mserver_connections_active", "Connections currently open", this.activeConnections.sum());
+        writeCounter(builder, "mserver_received_bytes_total", "Bytes received", this.bytesIn.sum());
+        writeCounter(builder, "mserver_sent_bytes_total", "Bytes sent", this.bytesOut.sum());
+        writeCounter(builder, "mserver_legacy_pings_total", "Legacy (pre-1.7) pings answered", this.legacyPings.sum());
+
+        builder.append("# HELP mserver_kicks_total Login attempts, by kick reason\n");
+        builder.append("# TYPE mserver_kicks_total counter\n");
+        builder.append("mserver_kicks_total{reason=\"maintenance\"} ").append(this.kicksMaintenance.sum()).append('\n');
+        builder.append("mserver_kicks_total{reason=\"banned\"} ").append(this.kicksBanned.sum()).append('\n');
+        builder.append("mserver_kicks_total{reason=\"not_whitelisted\"} ").append(this.kicksNotWhitelisted.sum()).append('\n');
+
+        writeCounter(builder, "mserver_timeouts_total", "Connections closed because they timed out", this.timeouts.sum());
+        writeCounter(builder, "mserver_errors_total", "Connections closed because of an error", this.errors.sum());
+
+        if (throttle != null) {
+            writeCounter(builder, "mserver_throttled_connections_total", "Connections rejected by the throttle", throttle.getRejectedConnections());
+            writeGauge(builder, "mserver_throttle_tracked_addresses", "Addresses tracked by the throttle", throttle.getTrackedAddresses());
+        }
+
+        this.responseLatency.writePrometheus(builder, "mserver_response_latency_seconds", "Time between the handshake and the response");
+        this.packetHandlingTime.writePrometheus(builder, "mserver_packet_handling_seconds", "Time spent handling a single packet");
+
+        return builder.toString();
+    }
+
+    /**
+     * Returns a short, human readable summary for the console
+     * @return
+     */
+    public String toSummary() {
+        long status = this.packets[PacketHandler.Protocol.STATUS.ordinal()][0].sum();
+        long pings = this.packets[PacketHandler.Protocol.STATUS.ordinal()][1].sum();
+        long logins = this.packets[PacketHandler.Protocol.LOGIN.ordinal()][0].sum();
+
+        return "Connections: " + this.connections.sum() + " (" + this.activeConnections.sum() + " active)"
+                + ", status requests: " + status + ", pings: " + pings + ", legacy pings: " + this.legacyPings.sum()
+                + ", logins: " + logins + " (banned: " + this.kicksBanned.sum() + ", not whitelisted: " + this.kicksNotWhitelisted.sum() + ")"
+                + ", timeouts: " + this.timeouts.sum() + ", errors: " + this.errors.sum()
+                + ", bytes in/out: " + this.bytesIn.sum() + "/" + this.bytesOut.sum()
+                + ", response latency p50/p99/p999: " + this.responseLatency.getValueAtPercentile(50) + "/"
+                + this.responseLatency.getValueAtPercentile(99) + "/" + this.responseLatency.getValueAtPercentile(99.9) + "us";
+    }
+
+    private static void writeCounter(StringBuilder builder, String name, String help, long value) {
+        write(builder, name, help, "counter", value);
+    }
+
+    private static void writeGauge(StringBuilder builder, String name, String help, long value) {
+        write(builder, name, help, "gauge", value);
+    }
+
+    private static void write(StringBuilder builder, String name, String help, String type, long value) {
+        builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        builder.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        builder.append(name).append(' ').append(value).append('\n');
+    }
+}
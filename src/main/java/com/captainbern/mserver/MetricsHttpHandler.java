@@ -0,0 +1,47 @@
+package com.captainbern.mserver;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.*;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves the metrics in the Prometheus text format to any GET request
+ */
+public class MetricsHttpHandler extends SimpleChannelInboundHandler<HttpRequest> {
+
+    private final MaintenanceServer maintenanceServer;
+
+    public MetricsHttpHandler(MaintenanceServer maintenanceServer) {
+        this.maintenanceServer = maintenanceServer;
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, HttpRequest request) throws Exception {
+        FullHttpResponse response;
+
+        if (request.getMethod() != HttpMethod.GET) {
+            response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.METHOD_NOT_ALLOWED);
+        } else {
+            String metrics = this.maintenanceServer.getMetrics().toPrometheus(this.maintenanceServer.getConnectionThrottle());
+            ByteBuf content = Unpooled.copiedBuffer(metrics, StandardCharsets.UTF_8);
+
+            response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, content);
+            response.headers().set(HttpHeaders.Names.CONTENT_TYPE, "text/plain; version=0.0.4; charset=utf-8");
+        }
+
+        HttpHeaders.setContentLength(response, response.content().readableBytes());
+        response.headers().set(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.CLOSE);
+
+        ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        ctx.close();
+    }
+}
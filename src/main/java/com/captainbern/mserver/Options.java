@@ -5,15 +5,23 @@ public class Options {
     public static final String USE_CONFIG = "config";
     public static final String JLINE = "jline";
     public static final String LOG_FILE = "logFile";
+    public static final String LOG_QUEUE_SIZE = "log-queue-size";
+    public static final String LOG_OVERFLOW_POLICY = "log-overflow-policy";
+    public static final String LOG_FLUSH_INTERVAL = "log-flush-interval";
 
     public static final String PORT = "port";
     public static final String IP = "ip";
+    public static final String BIND_ADDRESSES = "bind-addresses";
+    public static final String SUPERVISED = "supervised";
+    public static final String TAKEOVER_FILE = "takeover-file";
 
     public static final String PROTOCOL = "protocol";
     public static final String VERSION = "version";
 
     public static final String ONLINE_PLAYERS = "online";
     public static final String MAX_ONLINE = "max-online";
+    public static final String PLAYER_SOURCE = "player-source";
+    public static final String PLAYER_POLL_INTERVAL = "player-poll-interval";
 
     public static final String MOTD = "motd";
 
@@ -21,24 +29,103 @@ public class Options {
     public static final String KICK_MESSAGE_BANNED = "kick-message-banned";
     public static final String KICK_MESSAGE_NOT_ON_WHITELIST = "kick-message-not-whitelisted";
 
+    public static final String USE_WHITELIST = "white-list";
+
+    public static final String USE_EPOLL = "use-epoll";
+    public static final String BOSS_THREADS = "boss-threads";
+    public static final String WORKER_THREADS = "worker-threads";
+
+    public static final String BACKLOG = "backlog";
+    public static final String TCP_NO_DELAY = "tcp-no-delay";
+    public static final String RECEIVE_BUFFER_SIZE = "receive-buffer-size";
+    public static final String SEND_BUFFER_SIZE = "send-buffer-size";
+    public static final String WRITE_BUFFER_HIGH_WATER_MARK = "write-buffer-high-water-mark";
+    public static final String WRITE_BUFFER_LOW_WATER_MARK = "write-buffer-low-water-mark";
+
+    public static final String METRICS_PORT = "metrics-port";
+    public static final String METRICS_IP = "metrics-ip";
+
+    public static final String HANDSHAKE_TIMEOUT = "handshake-timeout";
+    public static final String STATE_TIMEOUT = "state-timeout";
+    public static final String CONNECTION_TIMEOUT = "connection-timeout";
+    public static final String SHUTDOWN_TIMEOUT = "shutdown-timeout";
+
+    public static final String ACCESS_LOG = "access-log";
+    public static final String ACCESS_LOG_SEGMENT_SIZE = "access-log-segment-size";
+
+    public static final String LOGIN_TRACKER_SIZE = "login-tracker-size";
+    public static final String LOGIN_SNAPSHOT_INTERVAL = "login-snapshot-interval";
+
+    public static final String THROTTLE_RATE = "throttle-rate";
+    public static final String THROTTLE_BURST = "throttle-burst";
+    public static final String THROTTLE_MAX_ADDRESSES = "throttle-max-addresses";
+    public static final String THROTTLE_OVERFLOW_RATE = "throttle-overflow-rate";
+
+    public static final String POOLED_BUFFERS = "pooled-buffers";
+    public static final String DIRECT_BUFFERS = "direct-buffers";
+
     public static class Defaults {
         public static final boolean USE_CONFIG = true;
         public static final boolean JLINE_ENABLED = true;
         public static final String LOG_FILE = "./logs/Log.log";
+        public static final int LOG_QUEUE_SIZE = 8192;
+        public static final String LOG_OVERFLOW_POLICY = "block"; // block, drop or sample
+        public static final int LOG_FLUSH_INTERVAL = 100; // Milliseconds
 
         public static final int PORT = 25566;
         public static final String IP = "127.0.0.1";
+        public static final String BIND_ADDRESSES = ""; // Empty binds to the ip and port only
+        public static final boolean SUPERVISED = false;
+        public static final String TAKEOVER_FILE = "maintenance.takeover"; // Only listens while this file exists when supervised
 
         public static final int PROTOCOL = -1;
         public static final String VERSION = "MaintenanceServer";
 
         public static final int ONLINE_PLAYERS = 0;
         public static final int MAX_ONLINE_PLAYERS = 0;
+        public static final String PLAYER_SOURCE = ""; // Empty uses the static counts above
+        public static final int PLAYER_POLL_INTERVAL = 1000; // Milliseconds
 
         public static final String MOTD = "A Maintenance Server!";
 
         public static final String KICK_MESSAGE = "This is a Maintenance Server you silly goose!";
         public static final String KICK_MESSAGE_BANNED = "You are banned from this server";
         public static final String KICK_MESSAGE_NOT_ON_WHITELIST = "You are not whitelisted!";
+
+        public static final boolean USE_WHITELIST = false;
+
+        public static final boolean USE_EPOLL = true;
+        public static final int BOSS_THREADS = 1;
+        public static final int WORKER_THREADS = 0; // 0 lets Netty decide (twice the amount of cores)
+
+        public static final int BACKLOG = 1024;
+        public static final boolean TCP_NO_DELAY = true;
+        public static final int RECEIVE_BUFFER_SIZE = 0; // 0 leaves it to the OS
+        public static final int SEND_BUFFER_SIZE = 0;
+        // The same as Netty's, which the order the marks are applied in depends on
+        public static final int WRITE_BUFFER_HIGH_WATER_MARK = 64 * 1024;
+        public static final int WRITE_BUFFER_LOW_WATER_MARK = 32 * 1024;
+
+        public static final int METRICS_PORT = 0; // 0 disables the metrics endpoint
+        public static final String METRICS_IP = "127.0.0.1";
+
+        public static final int HANDSHAKE_TIMEOUT = 5000; // Milliseconds, 0 disables the timeout
+        public static final int STATE_TIMEOUT = 10000;
+        public static final int CONNECTION_TIMEOUT = 30000;
+        public static final int SHUTDOWN_TIMEOUT = 2000; // The time open connections get to finish when stopping
+
+        public static final String ACCESS_LOG = ""; // The directory of the binary access log, empty disables it
+        public static final int ACCESS_LOG_SEGMENT_SIZE = 64; // Megabytes
+
+        public static final int LOGIN_TRACKER_SIZE = 4096; // 0 disables tracking who tried to join
+        public static final int LOGIN_SNAPSHOT_INTERVAL = 60; // Seconds, 0 only writes the snapshot when stopping
+
+        public static final int THROTTLE_RATE = 5; // 0 disables throttling
+        public static final int THROTTLE_BURST = 10;
+        public static final int THROTTLE_MAX_ADDRESSES = 100000;
+        public static final int THROTTLE_OVERFLOW_RATE = 1000;
+
+        public static final boolean POOLED_BUFFERS = true;
+        public static final boolean DIRECT_BUFFERS = true;
     }
 }
@@ -1,30 +1,77 @@
 package com.captainbern.mserver;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.*;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
-import org.json.JSONObject;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
 public class PacketHandler extends SimpleChannelInboundHandler<ByteBuf> {
 
     private final MaintenanceServer maintenanceServer;
 
     private Protocol currentProtocol;
+    private boolean statusSent;
+    private long handshakeTime;
+
+    private String profile;
+    private String host;
+    private int protocolVersion;
+    private int requestedState;
+
+    private Runnable closeTask;
+    private ScheduledFuture<?> stateTimeout;
+    private ScheduledFuture<?> connectionTimeout;
 
     public PacketHandler(MaintenanceServer maintenanceServer) {
         this.maintenanceServer = maintenanceServer;
     }
 
     @Override
-    public void channelActive(ChannelHandlerContext ctx) {
-        this.currentProtocol = Protocol.HANDSHAKE;
+    public void channelActive(final ChannelHandlerContext ctx) {
+        // The profile of the address the client connected to, if any
+        this.profile = ctx.channel().parent().attr(BindAddress.PROFILE).get();
+
+        this.closeTask = new Runnable() {
+            @Override
+            public void run() {
+                maintenanceServer.getMetrics().recordTimeout();
+                ctx.close();
+            }
+        };
+
+        // No connection should ever need more than this, whatever state it is in
+        long timeout = this.maintenanceServer.getConnectionTimeout();
+        if (timeout > 0)
+            this.connectionTimeout = ctx.executor().schedule(this.closeTask, timeout, TimeUnit.MILLISECONDS);
+
+        setProtocol(ctx.channel(), Protocol.HANDSHAKE);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        setProtocol(ctx.channel(), Protocol.DISCONNECTED);
+
+        if (this.connectionTimeout != null)
+            this.connectionTimeout.cancel(false);
+
+        super.channelInactive(ctx);
     }
 
     @Override
     protected void channelRead0(ChannelHandlerContext handlerContext, ByteBuf byteBuf) throws Exception {
         Channel channel = handlerContext.channel();
+        Metrics metrics = this.maintenanceServer.getMetrics();
+        long start = System.nanoTime();
+
+        if (byteBuf.isReadable())
+            metrics.recordPacket(this.currentProtocol, byteBuf.getByte(byteBuf.readerIndex()));
 
         switch (this.currentProtocol) {
             case HANDSHAKE:
@@ -37,11 +84,46 @@ public class PacketHandler extends SimpleChannelInboundHandler<ByteBuf> {
                 handleStatus(channel, byteBuf);
                 break;
         }
+
+        metrics.getPacketHandlingTime().recordSince(start);
     }
 
     @Override
     public void exceptionCaught(ChannelHandlerContext handlerContext, Throwable throwable) {
-        MaintenanceServer.LOGGER.warn("An exception occurred while handling the packets for: " + handlerContext.channel().remoteAddress(), throwable);
+        // Malformed packets are mostly bots and scanners, logging every single one at WARN would flood the log
+        MaintenanceServer.LOGGER.debug("An exception occurred while handling the packets for: " + handlerContext.channel().remoteAddress(), throwable);
+        this.maintenanceServer.getMetrics().recordError();
+        handlerContext.close();
+    }
+
+    /**
+     * Moves the connection to the given state, and (re)schedules the timeout of that state
+     * @param channel
+     * @param protocol
+     */
+    private void setProtocol(Channel channel, Protocol protocol) {
+        this.currentProtocol = protocol;
+
+        if (this.stateTimeout != null) {
+            this.stateTimeout.cancel(false);
+            this.stateTimeout = null;
+        }
+
+        long timeout;
+        switch (protocol) {
+            case HANDSHAKE:
+                timeout = this.maintenanceServer.getHandshakeTimeout();
+                break;
+            case STATUS:
+            case LOGIN:
+                timeout = this.maintenanceServer.getStateTimeout();
+                break;
+            default:
+                return;
+        }
+
+        if (timeout > 0)
+            this.stateTimeout = channel.eventLoop().schedule(this.closeTask, timeout, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -50,27 +132,29 @@ public class PacketHandler extends SimpleChannelInboundHandler<ByteBuf> {
      * @param byteBuf
      */
     private void handleHandshake(Channel channel, ByteBuf byteBuf) {
-        int length = ByteBufUtils.readVarInt(byteBuf);
+        this.handshakeTime = System.nanoTime();
         int opcode = ByteBufUtils.readVarInt(byteBuf);
 
         int protoVersion = ByteBufUtils.readVarInt(byteBuf);
         String address = ByteBufUtils.readUTF(byteBuf);
         int port = byteBuf.readUnsignedShort();
         int state = ByteBufUtils.readVarInt(byteBuf);
+        this.requestedState = state;
 
         // NetworkServer.LOGGER.info("ProtoVersion: " + protoVersion + ", Address: " + address + ", Port: " + port + ", State: " + state);
 
-        Protocol[] protocols = Protocol.values();
+        // Used to pick the status profile
+        this.host = address;
+        this.protocolVersion = protoVersion;
 
-        if (state < 0 || state >= protocols.length)
-            disconnect(channel, "Requested state is out of bounds!");
-
-        this.currentProtocol = protocols[state];
-
-        if (this.currentProtocol == Protocol.STATUS) {
-            sendStatusResponse(channel); // Immediately send the response
-        } else if (this.currentProtocol == Protocol.LOGIN) {
-            handleLogin(channel, byteBuf);
+        if (state == 1) {
+            setProtocol(channel, Protocol.STATUS);
+        } else if (state == 2) {
+            setProtocol(channel, Protocol.LOGIN);
+        } else {
+            // Requested state is out of bounds
+            setProtocol(channel, Protocol.DISCONNECTED);
+            channel.close();
         }
     }
 
@@ -80,16 +164,16 @@ public class PacketHandler extends SimpleChannelInboundHandler<ByteBuf> {
      * @param byteBuf
      */
     private void handleStatus(Channel channel, ByteBuf byteBuf) {
-        if (!byteBuf.isReadable())
-            return;
-
-        int length = ByteBufUtils.readVarInt(byteBuf);
         int opcode = ByteBufUtils.readVarInt(byteBuf);
 
-        if (opcode == 0x0) { // Status Request
+        if (opcode == 0x0 && !this.statusSent) { // Status Request
+            this.statusSent = true;
             sendStatusResponse(channel);
         } else if (opcode == 0x01) { // Ping Packet
             sendPingResponse(channel, byteBuf.readLong());
+        } else {
+            setProtocol(channel, Protocol.DISCONNECTED);
+            channel.close();
         }
     }
 
@@ -98,18 +182,11 @@ public class PacketHandler extends SimpleChannelInboundHandler<ByteBuf> {
      * @param channel
      */
     private void sendStatusResponse(Channel channel) {
-        ByteBuf header = Unpooled.buffer();
-        ByteBuf data = Unpooled.buffer();
+        // The responses are encoded once by the MaintenanceServer, and copied once per event loop
+        sendPacket(channel, this.maintenanceServer.getStatusPacket(channel.eventLoop(), this.profile, this.host, this.protocolVersion));
+        this.maintenanceServer.getMetrics().getResponseLatency().recordSince(this.handshakeTime);
 
-        // Construct the PingResponse packet
-        ByteBufUtils.writeVarInt(data, 0x0);
-        ByteBufUtils.writeUTF(data, this.maintenanceServer.getPingResponse().toString());
-
-        // Construct the PacketHeader
-        ByteBufUtils.writeVarInt(header, data.readableBytes());
-
-        // Send the Response
-        sendPacket(channel, Unpooled.wrappedBuffer(header, data));
+        recordAccess(channel, null, AccessLog.Outcome.STATUS);
     }
 
     /**
@@ -118,18 +195,16 @@ public class PacketHandler extends SimpleChannelInboundHandler<ByteBuf> {
      * @param time
      */
     private void sendPingResponse(Channel channel, long time) {
-        ByteBuf header = Unpooled.buffer();
-        ByteBuf data = Unpooled.buffer();
+        ByteBuf data = channel.alloc().buffer(10);
 
-        // Write the contents of the packet
+        // Write the length and the contents of the packet, there is no prepender so it's written as one buffer
+        ByteBufUtils.writeVarInt(data, 9);
         ByteBufUtils.writeVarInt(data, 0x1);
         data.writeLong(time);
 
-        // Create the PacketHeader
-        ByteBufUtils.writeVarInt(header, data.readableBytes());
-
-        // Send a Ping-response to let the client know we're still alive
-        sendPacket(channel, Unpooled.wrappedBuffer(header, data));
+        // Send a Ping-response to let the client know we're still alive, this is the last packet of the Status Protocol
+        setProtocol(channel, Protocol.DISCONNECTED);
+        sendPacket(channel, data).addListener(ChannelFutureListener.CLOSE);
     }
 
     /**
@@ -137,45 +212,100 @@ public class PacketHandler extends SimpleChannelInboundHandler<ByteBuf> {
      * to connect with, and check the white/ban list
      * @param channel
      */
-    private void handleLogin(Channel channel, ByteBuf byteBuf) {
-        if (!byteBuf.isReadable())
-            return;
-
-        int length = ByteBufUtils.readVarInt(byteBuf);
+    private void handleLogin(final Channel channel, ByteBuf byteBuf) {
         int opcode = ByteBufUtils.readVarInt(byteBuf);
 
-        String name = ByteBufUtils.readUTF(byteBuf);
-
-        // TODO: check white + black list
+        final String name = ByteBufUtils.readUTF(byteBuf);
+
+        // Right after starting, the bans and the whitelist may still be loading, the login is checked once they're known
+        CompletableFuture<Void> accessListLoaded = this.maintenanceServer.getAccessListLoaded();
+        if (!accessListLoaded.isDone()) {
+            accessListLoaded.whenComplete(new BiConsumer<Void, Throwable>() {
+                @Override
+                public void accept(Void result, Throwable throwable) {
+                    channel.eventLoop().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            // The state timeout may have closed it in the meantime
+                            if (channel.isActive())
+                                checkLogin(channel, name);
+                        }
+                    });
+                }
+            });
+            return;
+        }
 
-        disconnect(channel, this.maintenanceServer.getKickMessage());
+        checkLogin(channel, name);
     }
 
     /**
-     * Sends a disconnect packet to the client with the given message
+     * Kicks the player with the message that applies to them
      * @param channel
-     * @param message
+     * @param name
      */
-    private void disconnect(Channel channel, String message) {
-        if (channel.isActive() && this.currentProtocol == Protocol.PLAY || this.currentProtocol == Protocol.LOGIN) {
-
-            ByteBuf header = Unpooled.buffer();
-            ByteBuf data = Unpooled.buffer();
+    private void checkLogin(Channel channel, String name) {
+        InetAddress address = ((InetSocketAddress) channel.remoteAddress()).getAddress();
+
+        AccessList accessList = this.maintenanceServer.getAccessList();
+        Metrics metrics = this.maintenanceServer.getMetrics();
+
+        LoginTracker loginTracker = this.maintenanceServer.getLoginTracker();
+        if (loginTracker != null)
+            loginTracker.record(name, address);
+
+        if (accessList.isBanned(name) || accessList.isBanned(address)) {
+            metrics.recordKickBanned();
+            recordAccess(channel, name, AccessLog.Outcome.BANNED);
+            disconnect(channel, this.maintenanceServer.getKickPacketBanned(channel.eventLoop()));
+        } else if (this.maintenanceServer.isWhitelistEnabled() && !accessList.isWhitelisted(name)) {
+            metrics.recordKickNotWhitelisted();
+            recordAccess(channel, name, AccessLog.Outcome.NOT_WHITELISTED);
+            disconnect(channel, this.maintenanceServer.getKickPacketNotOnWhiteList(channel.eventLoop()));
+        } else {
+            metrics.recordKickMaintenance();
+            recordAccess(channel, name, AccessLog.Outcome.KICKED);
+            disconnect(channel, this.maintenanceServer.getKickPacket(channel.eventLoop()));
+        }
 
-            ByteBufUtils.writeVarInt(data, 0x0);
-            ByteBufUtils.writeUTF(data, new JSONObject().put("text", message).toString());
+        metrics.getResponseLatency().recordSince(this.handshakeTime);
+    }
 
-            ByteBufUtils.writeVarInt(header, data.readableBytes());
+    /**
+     * Writes the outcome of this connection to the access log, if it's enabled
+     * @param channel
+     * @param name The player name, or null
+     * @param outcome
+     */
+    private void recordAccess(Channel channel, String name, AccessLog.Outcome outcome) {
+        AccessLog accessLog = this.maintenanceServer.getAccessLog();
+        if (accessLog != null) {
+            accessLog.record(((InetSocketAddress) channel.remoteAddress()).getAddress(), this.requestedState,
+                    this.protocolVersion, this.host, name, outcome);
+        }
+    }
 
-            sendPacket(channel, Unpooled.wrappedBuffer(header, data));
+    /**
+     * Sends the given (pre-encoded) disconnect packet to the client
+     * @param channel
+     * @param packet A retained duplicate of the packet, or null if there is none
+     */
+    private void disconnect(Channel channel, ByteBuf packet) {
+        if (packet != null && channel.isActive() && (this.currentProtocol == Protocol.PLAY || this.currentProtocol == Protocol.LOGIN)) {
+            setProtocol(channel, Protocol.DISCONNECTED);
+            sendPacket(channel, packet).addListener(ChannelFutureListener.CLOSE);
 
         } else {
+            if (packet != null)
+                packet.release();
+
+            setProtocol(channel, Protocol.DISCONNECTED);
             channel.close();
         }
     }
 
-    private void sendPacket(final Channel channel, ByteBuf packet) {
-        channel.writeAndFlush(packet).addListener(new GenericFutureListener<Future<? super Void>>() {
+    private ChannelFuture sendPacket(final Channel channel, ByteBuf packet) {
+        return channel.writeAndFlush(packet).addListener(new GenericFutureListener<Future<? super Void>>() {
             @Override
             public void operationComplete(Future<? super Void> future) throws Exception {
                 if (future.cause() != null)
@@ -188,10 +318,11 @@ public class PacketHandler extends SimpleChannelInboundHandler<ByteBuf> {
         MaintenanceServer.LOGGER.warn("An exception occurred while sending a packet to: " + channel.remoteAddress());
     }
 
-    private static enum Protocol {
+    static enum Protocol {
         HANDSHAKE,
         STATUS,
         LOGIN,
-        PLAY
+        PLAY,
+        DISCONNECTED
     }
 }
\ No newline at end of file
@@ -0,0 +1,154 @@
+package com.captainbern.mserver;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Periodically reads the live player counts from a file or from a TCP socket the proxy writes them to
+ * (tcp://host:port, the proxy sends the JSON and closes the connection), and hands them to the
+ * MaintenanceServer whenever they changed. Pings only ever see the cached result, they never wait for
+ * any of this I/O.
+ */
+public class PlayerCountPoller extends Thread {
+
+    /**
+     * Anything larger isn't a player count
+     */
+    private static final int MAX_SIZE = 64 * 1024;
+
+    private final MaintenanceServer server;
+    private final String source;
+    private final long interval;
+
+    private File file;
+    private InetSocketAddress address;
+
+    private long lastModified = -1;
+    private long lastLength = -1;
+    private PlayerCounts counts;
+    private boolean failing;
+
+    /**
+     * @param server
+     * @param source A file (relative to the server folder) or tcp://host:port
+     * @param interval In milliseconds
+     * @throws IllegalArgumentException If the source is an invalid tcp:// address
+     */
+    public PlayerCountPoller(MaintenanceServer server, String source, long interval) {
+        super("PlayerCountPoller");
+        setDaemon(true);
+
+        this.server = server;
+        this.source = source;
+        this.interval = interval;
+
+        if (source.startsWith("tcp://")) {
+            URI uri = URI.create(source);
+            if (uri.getHost() == null || uri.getPort() == -1)
+                throw new IllegalArgumentException("Invalid player count source: " + source);
+
+            this.address = new InetSocketAddress(uri.getHost(), uri.getPort());
+        } else {
+            this.file = new File(server.getRoot(), source);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                poll();
+                Thread.sleep(this.interval);
+            }
+        } catch (InterruptedException e) {
+            // We're shutting down
+        }
+    }
+
+    private void poll() {
+        PlayerCounts counts;
+        try {
+            String json = this.file != null ? readFile() : readSocket();
+            if (json == null)
+                return;
+
+            counts = PlayerCounts.parse(json);
+        } catch (IOException | JSONException e) {
+            // Keep showing the last counts, and only complain once until the source works again
+            if (!this.failing)
+                MaintenanceServer.LOGGER.warn("Failed to read the player counts from " + this.source + ": " + e.getMessage());
+
+            this.failing = true;
+            return;
+        }
+
+        if (this.failing)
+            MaintenanceServer.LOGGER.info("Reading the player counts from " + this.source + " again");
+        this.failing = false;
+
+        // Only rebuild the status packets when something actually changed
+        if (!counts.equals(this.counts)) {
+            this.counts = counts;
+            this.server.updatePlayerCounts(counts);
+        }
+    }
+
+    /**
+     * Reads the file, or returns null if it didn't change since the last poll
+     * @return
+     * @throws IOException
+     */
+    private String readFile() throws IOException {
+        long modified = this.file.lastModified();
+        long length = this.file.length();
+
+        if (modified == 0)
+            throw new IOException("The file doesn't exist");
+
+        if (modified == this.lastModified && length == this.lastLength && !this.failing)
+            return null;
+
+        if (length > MAX_SIZE)
+            throw new IOException("The file is larger than " + MAX_SIZE + " bytes");
+
+        String json = new String(Files.readAllBytes(this.file.toPath()), StandardCharsets.UTF_8);
+        this.lastModified = modified;
+        this.lastLength = length;
+        return json;
+    }
+
+    private String readSocket() throws IOException {
+        int timeout = (int) Math.min(this.interval, Integer.MAX_VALUE);
+
+        try (Socket socket = new Socket()) {
+            socket.connect(this.address, timeout);
+            socket.setSoTimeout(timeout);
+
+            InputStream in = socket.getInputStream();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                if (out.size() > MAX_SIZE)
+                    throw new IOException("The response is larger than " + MAX_SIZE + " bytes");
+            }
+
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    public void close() {
+        this.interrupt();
+    }
+}
@@ -0,0 +1,142 @@
+package com.captainbern.mserver;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The live player counts and player sample, as reported by the proxy. Parsed from either a single object
+ * or an array of objects (one per proxy or backend), which are added up:
+ * <pre>
+ * {
+ *   "online": 12,
+ *   "max": 100,
+ *   "sample": [
+ *     {"name": "Notch", "id": "069a79f4-44e9-4726-a5be-fca90e38aaf5"}
+ *   ]
+ * }
+ * </pre>
+ * Instances are immutable, so the poller can tell whether anything changed with a single equals().
+ */
+public class PlayerCounts {
+
+    /**
+     * Clients only show the first few names anyway, vanilla servers send up to 12
+     */
+    public static final int MAX_SAMPLE = 12;
+
+    private static final String NO_ID = "00000000-0000-0000-0000-000000000000";
+
+    private final int online;
+    private final int max;
+    private final List<String> names;
+    private final List<String> ids;
+
+    public PlayerCounts(int online, int max, List<String> names, List<String> ids) {
+        this.online = online;
+        this.max = max;
+        this.names = Collections.unmodifiableList(new ArrayList<>(names));
+        this.ids = Collections.unmodifiableList(new ArrayList<>(ids));
+    }
+
+    /**
+     * Parses the given object or array of objects
+     * @param json
+     * @return
+     * @throws JSONException If it isn't valid
+     */
+    public static PlayerCounts parse(String json) {
+        json = json.trim();
+
+        JSONArray entries;
+        if (json.startsWith("[")) {
+            entries = new JSONArray(json);
+        } else {
+            entries = new JSONArray().put(new JSONObject(json));
+        }
+
+        int online = 0;
+        int max = 0;
+        List<String> names = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+
+        for (int i = 0; i < entries.length(); i++) {
+            JSONObject entry = entries.getJSONObject(i);
+            online += entry.getInt("online");
+            max += entry.optInt("max", 0);
+
+            JSONArray sample = entry.optJSONArray("sample");
+            if (sample == null)
+                continue;
+
+            for (int j = 0; j < sample.length() && names.size() < MAX_SAMPLE; j++) {
+                Object player = sample.get(j);
+                if (player instanceof JSONObject) {
+                    names.add(((JSONObject) player).getString("name"));
+                    ids.add(((JSONObject) player).optString("id", NO_ID));
+                } else {
+                    names.add(player.toString());
+                    ids.add(NO_ID);
+                }
+            }
+        }
+
+        return new PlayerCounts(online, max, names, ids);
+    }
+
+    public int getOnline() {
+        return this.online;
+    }
+
+    /**
+     * Returns the maximum amount of players, or 0 if the source didn't report it
+     * @return
+     */
+    public int getMax() {
+        return this.max;
+    }
+
+    /**
+     * Returns the "sample" array of a ping response, or null if there are no names to show
+     * @return
+     */
+    public JSONArray toSample() {
+        if (this.names.isEmpty())
+            return null;
+
+        JSONArray sample = new JSONArray();
+        for (int i = 0; i < this.names.size(); i++) {
+            JSONObject player = new JSONObject();
+            player.put("name", this.names.get(i));
+            player.put("id", this.ids.get(i));
+            sample.put(player);
+        }
+        return sample;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof PlayerCounts))
+            return false;
+
+        PlayerCounts other = (PlayerCounts) o;
+        return this.online == other.online && this.max == other.max
+                && this.names.equals(other.names) && this.ids.equals(other.ids);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * (31 * this.online + this.max) + this.names.hashCode()) + this.ids.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return this.online + "/" + this.max + (this.names.isEmpty() ? "" : " " + this.names);
+    }
+}
@@ -14,15 +14,23 @@ public class PropertyHandler {
 
     public PropertyHandler(File propertyFile) {
         this.file = propertyFile;
+        this.loadProperties();
+    }
 
-        if (propertyFile.exists()) {
+    /**
+     * (Re)loads the properties from the file, creating it if it doesn't exist yet
+     */
+    public void loadProperties() {
+        if (this.file.exists()) {
             FileInputStream inputStream = null;
+            Properties properties = new Properties();
 
             try {
-                inputStream = new FileInputStream(propertyFile);
-                this.properties.load(inputStream);
+                inputStream = new FileInputStream(this.file);
+                properties.load(inputStream);
+                this.properties = properties;
             } catch (IOException e) {
-                MaintenanceServer.LOGGER.warn("Failed to load " + propertyFile, e);
+                MaintenanceServer.LOGGER.warn("Failed to load " + this.file, e);
                 this.saveProperties();
             } finally {
                 if (inputStream != null) {
@@ -84,6 +92,18 @@ public class PropertyHandler {
         }
     }
 
+    public boolean getBoolean(String key, boolean defValue) {
+        String value = getString(key, "" + defValue);
+
+        if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+            this.properties.setProperty(key, "" + defValue);
+            this.saveProperties();
+            return defValue;
+        }
+
+        return Boolean.parseBoolean(value);
+    }
+
     public void setProperty(String key, Object value) {
         this.properties.setProperty(key, "" + value);
     }
@@ -0,0 +1,141 @@
+package com.captainbern.mserver;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.util.concurrent.EventExecutor;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds a pre-encoded packet which is shared by all channels, so the packet only has to be encoded
+ * again when its contents change.
+ *
+ * Every event loop keeps a copy of its own. Channels get read-only duplicates of the copy of their
+ * event loop, so the reference count updates of a ping never touch memory another core is using.
+ * Changes are published as a new epoch, which each event loop picks up (and copies) the next time
+ * it needs the packet, without any locking on the read side.
+ */
+public class SharedPacket {
+
+    private volatile Snapshot snapshot;
+    private long epoch;
+
+    private final ConcurrentMap<EventExecutor, LocalCopy> copies = new ConcurrentHashMap<>();
+
+    /**
+     * Publishes the given packet, which is released once it has been copied. The copies of the previous
+     * packet are released by their event loops, once they have moved on to this one.
+     * @param packet
+     */
+    public synchronized void set(ByteBuf packet) {
+        byte[] bytes = new byte[packet.readableBytes()];
+        packet.getBytes(packet.readerIndex(), bytes);
+
+        this.snapshot = new Snapshot(++this.epoch, bytes, packet.alloc());
+        packet.release();
+    }
+
+    /**
+     * Releases the packet, for when it won't be used anymore
+     */
+    public synchronized void clear() {
+        this.snapshot = null;
+        this.epoch++;
+
+        // A copy may only be released by its own event loop, which may be using it right now
+        for (final Map.Entry<EventExecutor, LocalCopy> entry : this.copies.entrySet()) {
+            entry.getKey().execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (snapshot == null)
+                        entry.getValue().release();
+                }
+            });
+        }
+    }
+
+    public boolean isSet() {
+        return this.snapshot != null;
+    }
+
+    /**
+     * Returns a read-only, retained duplicate of the copy of the given event loop, which is released once it
+     * has been written, or null if there is no packet (anymore)
+     * @param executor The event loop of the channel the packet is written to
+     * @return
+     */
+    public ByteBuf duplicate(EventExecutor executor) {
+        Snapshot snapshot = this.snapshot;
+        if (snapshot == null)
+            return null;
+
+        // Never happens for channels, but a copy may only be used by its own event loop
+        if (!executor.inEventLoop())
+            return Unpooled.unmodifiableBuffer(Unpooled.wrappedBuffer(snapshot.bytes));
+
+        // Only this event loop ever puts or changes its own copy
+        LocalCopy copy = this.copies.get(executor);
+        if (copy == null) {
+            copy = new LocalCopy();
+            this.copies.put(executor, copy);
+        }
+
+        if (copy.epoch != snapshot.epoch)
+            copy.update(snapshot);
+
+        ByteBuf packet = copy.packet.duplicate().retain();
+
+        // Cleared while we were copying, before clear() could see our copy
+        if (this.snapshot == null)
+            copy.release();
+
+        return packet;
+    }
+
+    /**
+     * A published packet, kept as plain bytes so event loops can copy it without touching any reference count
+     */
+    private static class Snapshot {
+
+        private final long epoch;
+        private final byte[] bytes;
+        private final ByteBufAllocator allocator;
+
+        private Snapshot(long epoch, byte[] bytes, ByteBufAllocator allocator) {
+            this.epoch = epoch;
+            this.bytes = bytes;
+            this.allocator = allocator;
+        }
+    }
+
+    /**
+     * The copy of a single event loop, only ever used by that event loop
+     */
+    private static class LocalCopy {
+
+        private long epoch = -1;
+        private ByteBuf packet;
+
+        private void update(Snapshot snapshot) {
+            release();
+
+            // Allocated from this event loop, so a pooled allocator hands out memory from its own arena
+            ByteBuf packet = snapshot.allocator.buffer(snapshot.bytes.length);
+            packet.writeBytes(snapshot.bytes);
+
+            this.packet = Unpooled.unmodifiableBuffer(packet);
+            this.epoch = snapshot.epoch;
+        }
+
+        private void release() {
+            if (this.packet != null) {
+                this.packet.release();
+                this.packet = null;
+                this.epoch = -1;
+            }
+        }
+    }
+}
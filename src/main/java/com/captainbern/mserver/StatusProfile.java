@@ -0,0 +1,93 @@
+package com.captainbern.mserver;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.EventExecutor;
+import org.json.JSONObject;
+
+import java.util.Set;
+
+/**
+ * The status (MOTD, version, player counts and favicon) shown to the clients that connect through
+ * one of the profile's hostnames with a protocol version in the profile's range.
+ */
+public class StatusProfile {
+
+    private final String name;
+    private final Set<String> hosts;
+    private final int minProtocol;
+    private final int maxProtocol;
+
+    private final JSONObject pingResponse;
+    private final JSONObject definition;
+    private final String favicon;
+    private final SharedPacket statusPacket = new SharedPacket();
+
+    /**
+     * @param name
+     * @param hosts The (lowercase) hostnames this profile applies to, or an empty set for any hostname
+     * @param minProtocol The lowest protocol version this profile applies to (inclusive)
+     * @param maxProtocol The highest protocol version this profile applies to (inclusive)
+     * @param pingResponse
+     * @param definition The entry of the profile in status-profiles.json
+     * @param favicon The encoded favicon of the profile, or null
+     */
+    public StatusProfile(String name, Set<String> hosts, int minProtocol, int maxProtocol, JSONObject pingResponse,
+                         JSONObject definition, String favicon) {
+        this.name = name;
+        this.hosts = hosts;
+        this.minProtocol = minProtocol;
+        this.maxProtocol = maxProtocol;
+        this.pingResponse = pingResponse;
+        this.definition = definition;
+        this.favicon = favicon;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public Set<String> getHosts() {
+        return this.hosts;
+    }
+
+    public boolean matches(int protocolVersion) {
+        return protocolVersion >= this.minProtocol && protocolVersion <= this.maxProtocol;
+    }
+
+    public JSONObject getPingResponse() {
+        return this.pingResponse;
+    }
+
+    public JSONObject getDefinition() {
+        return this.definition;
+    }
+
+    public String getFavicon() {
+        return this.favicon;
+    }
+
+    /**
+     * Sets the encoded StatusResponse packet of this profile
+     * @param packet
+     */
+    protected void setStatusPacket(ByteBuf packet) {
+        this.statusPacket.set(packet);
+    }
+
+    /**
+     * Returns a read-only, retained duplicate of the encoded StatusResponse packet, or null if
+     * this profile has been replaced in the meantime
+     * @param executor The event loop of the channel the packet is written to
+     * @return
+     */
+    public ByteBuf getStatusPacket(EventExecutor executor) {
+        return this.statusPacket.duplicate(executor);
+    }
+
+    /**
+     * Releases the encoded packet, once the profile has been replaced
+     */
+    protected void release() {
+        this.statusPacket.clear();
+    }
+}
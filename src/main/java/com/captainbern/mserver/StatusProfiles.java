@@ -0,0 +1,223 @@
+package com.captainbern.mserver;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * An immutable snapshot of the status profiles in status-profiles.json, indexed by hostname. Picking
+ * the profile for a handshake is a single hash probe followed by a range check on the (few) profiles
+ * of that hostname.
+ *
+ * Every entry of the file may override any of the status properties, whatever isn't overridden is
+ * taken from maintenance-server.properties:
+ * <pre>
+ * [
+ *   {
+ *     "name": "example",
+ *     "hosts": ["play.example.com", "example.com"],
+ *     "min-protocol": 47,
+ *     "max-protocol": 340,
+ *     "version": "Example 1.8 - 1.12",
+ *     "protocol": 47,
+ *     "motd": "Example is under maintenance",
+ *     "online": 0,
+ *     "max-online": 100,
+ *     "favicon": "example-icon.png"
+ *   }
+ * ]
+ * </pre>
+ * Profiles without hosts apply to any hostname. When several profiles match, the first one wins.
+ */
+public class StatusProfiles {
+
+    private static final StatusProfile[] NONE = new StatusProfile[0];
+
+    public static final StatusProfiles EMPTY = new StatusProfiles(Collections.<StatusProfile>emptyList());
+
+    private final List<StatusProfile> profiles;
+    private final Map<String, StatusProfile> byName = new HashMap<>();
+    private final Map<String, StatusProfile[]> byHost = new HashMap<>();
+    private final StatusProfile[] anyHost;
+
+    public StatusProfiles(List<StatusProfile> profiles) {
+        this.profiles = Collections.unmodifiableList(new ArrayList<>(profiles));
+
+        Map<String, List<StatusProfile>> byHost = new HashMap<>();
+        List<StatusProfile> anyHost = new ArrayList<>();
+
+        for (StatusProfile profile : profiles) {
+            if (!this.byName.containsKey(profile.getName()))
+                this.byName.put(profile.getName(), profile);
+
+            if (profile.getHosts().isEmpty()) {
+                anyHost.add(profile);
+                continue;
+            }
+
+            for (String host : profile.getHosts()) {
+                List<StatusProfile> list = byHost.get(host);
+                if (list == null)
+                    byHost.put(host, list = new ArrayList<>());
+                list.add(profile);
+            }
+        }
+
+        for (Map.Entry<String, List<StatusProfile>> entry : byHost.entrySet()) {
+            this.byHost.put(entry.getKey(), entry.getValue().toArray(NONE));
+        }
+        this.anyHost = anyHost.toArray(NONE);
+    }
+
+    /**
+     * Loads the profiles from the given file, each based on a copy of the given default ping response.
+     * A missing file means there are no profiles, a file that can't be read keeps the previous ones.
+     * @param file
+     * @param defaults The default ping response
+     * @param server Used to load the favicons
+     * @param previous The profiles that are being replaced, {@link #EMPTY} for the first ones
+     * @return
+     */
+    public static StatusProfiles load(File file, JSONObject defaults, MaintenanceServer server, StatusProfiles previous) {
+        List<JSONObject> entries;
+        try {
+            entries = AccessList.readEntries(file);
+        } catch (IOException e) {
+            MaintenanceServer.LOGGER.warn("Failed to load " + file + ", keeping the previous status profiles", e);
+            return previous.withDefaults(defaults);
+        }
+
+        List<StatusProfile> profiles = new ArrayList<>();
+        for (JSONObject entry : entries) {
+            String name = entry.optString("name", "profile-" + profiles.size());
+            try {
+                // Read once, rebuilding the profiles for new defaults only needs the result
+                String favicon = entry.has("favicon") ? server.loadFavicon(new File(file.getParentFile(), entry.getString("favicon"))) : null;
+                profiles.add(parseProfile(name, entry, favicon, defaults));
+            } catch (JSONException e) {
+                MaintenanceServer.LOGGER.warn("Ignoring invalid status profile \"" + name + "\" in " + file + ": " + e.getMessage());
+            }
+        }
+
+        if (!profiles.isEmpty())
+            MaintenanceServer.LOGGER.info("Loaded " + profiles.size() + " status profiles");
+
+        return new StatusProfiles(profiles);
+    }
+
+    /**
+     * Builds the same profiles again, based on a copy of the given (new) default ping response. Unlike {@link #load},
+     * this doesn't touch the file or the favicons.
+     * @param defaults The default ping response
+     * @return
+     */
+    public StatusProfiles withDefaults(JSONObject defaults) {
+        List<StatusProfile> profiles = new ArrayList<>();
+        for (StatusProfile profile : this.profiles) {
+            profiles.add(parseProfile(profile.getName(), profile.getDefinition(), profile.getFavicon(), defaults));
+        }
+        return new StatusProfiles(profiles);
+    }
+
+    /**
+     * @param name
+     * @param entry The entry of the profile in the file
+     * @param favicon The favicon of the entry, or null if it has none or it couldn't be loaded
+     * @param defaults The default ping response
+     * @return
+     */
+    private static StatusProfile parseProfile(String name, JSONObject entry, String favicon, JSONObject defaults) {
+        JSONObject pingResponse = new JSONObject(defaults.toString());
+
+        if (entry.has("version"))
+            pingResponse.getJSONObject("version").put("name", entry.getString("version"));
+        if (entry.has("protocol"))
+            pingResponse.getJSONObject("version").put("protocol", entry.getInt("protocol"));
+        if (entry.has("online"))
+            pingResponse.getJSONObject("players").put("online", entry.getInt("online"));
+        if (entry.has("max-online"))
+            pingResponse.getJSONObject("players").put("max", entry.getInt("max-online"));
+        if (entry.has("motd"))
+            pingResponse.put("description", ChatFormatter.toComponent(entry.getString("motd")));
+
+        if (entry.has("favicon")) {
+            if (favicon != null) {
+                pingResponse.put("favicon", favicon);
+            } else {
+                pingResponse.remove("favicon");
+            }
+        }
+
+        Set<String> hosts = new HashSet<>();
+        JSONArray array = entry.optJSONArray("hosts");
+        if (array != null) {
+            for (int i = 0; i < array.length(); i++) {
+                hosts.add(normalizeHost(array.getString(i)));
+            }
+        }
+
+        int minProtocol = entry.has("min-protocol") ? entry.getInt("min-protocol") : Integer.MIN_VALUE;
+        int maxProtocol = entry.has("max-protocol") ? entry.getInt("max-protocol") : Integer.MAX_VALUE;
+
+        return new StatusProfile(name, hosts, minProtocol, maxProtocol, pingResponse, entry, favicon);
+    }
+
+    /**
+     * Returns the profile for the given handshake, or null if no profile matches
+     * @param host The hostname the client connected with
+     * @param protocolVersion The protocol version of the client
+     * @return
+     */
+    public StatusProfile get(String host, int protocolVersion) {
+        if (this.profiles.isEmpty())
+            return null;
+
+        StatusProfile[] profiles = this.byHost.get(normalizeHost(host));
+        if (profiles != null) {
+            for (StatusProfile profile : profiles) {
+                if (profile.matches(protocolVersion))
+                    return profile;
+            }
+        }
+
+        for (StatusProfile profile : this.anyHost) {
+            if (profile.matches(protocolVersion))
+                return profile;
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the profile with the given name, or null if there is no such profile
+     * @param name
+     * @return
+     */
+    public StatusProfile get(String name) {
+        return this.byName.get(name);
+    }
+
+    public List<StatusProfile> getProfiles() {
+        return this.profiles;
+    }
+
+    /**
+     * Strips what clients may append to the hostname (a trailing dot, Forge's "\0FML\0" marker) and lowercases it
+     * @param host
+     * @return
+     */
+    public static String normalizeHost(String host) {
+        int end = host.indexOf('\0');
+        if (end == -1)
+            end = host.length();
+
+        if (end > 0 && host.charAt(end - 1) == '.')
+            end--;
+
+        return host.substring(0, end).toLowerCase(Locale.ENGLISH);
+    }
+}
@@ -0,0 +1,71 @@
+package com.captainbern.mserver;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ChatFormatterTest {
+
+    @Test
+    public void testPlainText() {
+        assertPlainText("This is a Maintenance Server you silly goose!");
+        assertPlainText("<3 you all");
+    }
+
+    @Test
+    public void testTextThatLooksLikeJson() {
+        // Lenient JSON parsing would take these for components
+        assertPlainText("[Maintenance] back soon");
+        assertPlainText("[Maintenance]");
+        assertPlainText("[1, 2, 3]");
+        assertPlainText("{maintenance}");
+        assertPlainText("{maintenance: true}");
+        assertPlainText("{\"unfinished\": ");
+    }
+
+    @Test
+    public void testJson() {
+        JSONObject component = ChatFormatter.toComponent("{\"text\": \"Maintenance\", \"color\": \"red\"}");
+        assertEquals("Maintenance", component.getString("text"));
+        assertEquals("red", component.getString("color"));
+
+        component = ChatFormatter.toComponent("[\"Back \", {\"text\": \"soon\", \"bold\": true}]");
+        JSONArray extra = component.getJSONArray("extra");
+        assertEquals("Back ", extra.getString(0));
+        assertTrue(extra.getJSONObject(1).getBoolean("bold"));
+
+        assertEquals("Back soon", ChatFormatter.toPlainText("[\"Back \", {\"text\": \"soon\", \"bold\": true}]"));
+    }
+
+    @Test
+    public void testLegacyCodes() {
+        JSONArray extra = ChatFormatter.toComponent("&cMaintenance &lahead").getJSONArray("extra");
+        assertEquals(2, extra.length());
+        assertEquals("Maintenance ", extra.getJSONObject(0).getString("text"));
+        assertEquals("red", extra.getJSONObject(0).getString("color"));
+        assertEquals("ahead", extra.getJSONObject(1).getString("text"));
+        assertTrue(extra.getJSONObject(1).getBoolean("bold"));
+
+        assertEquals("Maintenance ahead", ChatFormatter.toPlainText("&cMaintenance &lahead"));
+    }
+
+    @Test
+    public void testTags() {
+        JSONArray extra = ChatFormatter.toComponent("<red>Maintenance</red> <BOLD>ahead").getJSONArray("extra");
+        assertEquals(3, extra.length());
+        assertEquals("red", extra.getJSONObject(0).getString("color"));
+        assertFalse(extra.getJSONObject(1).has("color"));
+        assertTrue(extra.getJSONObject(2).getBoolean("bold"));
+
+        assertEquals("Maintenance ahead", ChatFormatter.toPlainText("<red>Maintenance</red> <BOLD>ahead"));
+    }
+
+    private static void assertPlainText(String message) {
+        JSONObject component = ChatFormatter.toComponent(message);
+        assertEquals(1, component.length());
+        assertEquals(message, component.getString("text"));
+        assertEquals(message, ChatFormatter.toPlainText(message));
+    }
+}
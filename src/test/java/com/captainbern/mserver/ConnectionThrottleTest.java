@@ -0,0 +1,125 @@
+package com.captainbern.mserver;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ConnectionThrottleTest {
+
+    private InetAddress address;
+
+    @Before
+    public void setup() throws Exception {
+        this.address = InetAddress.getByName("10.0.0.1");
+    }
+
+    @Test
+    public void testBurst() {
+        TestThrottle throttle = new TestThrottle(1, 5, 100, 1);
+
+        assertEquals(5, acquire(throttle, this.address, 100));
+    }
+
+    @Test
+    public void testNoBurst() {
+        TestThrottle throttle = new TestThrottle(1, 1, 100, 1);
+
+        assertEquals(1, acquire(throttle, this.address, 100));
+    }
+
+    @Test
+    public void testRate() {
+        TestThrottle throttle = new TestThrottle(2, 3, 100, 2);
+        assertEquals(3, acquire(throttle, this.address, 100));
+
+        // One more every 500ms
+        throttle.advance(499);
+        assertFalse(throttle.tryAcquire(this.address));
+        throttle.advance(1);
+        assertEquals(1, acquire(throttle, this.address, 100));
+
+        // Ten seconds fill up the bucket, but never past the burst
+        throttle.advance(10000);
+        assertEquals(3, acquire(throttle, this.address, 100));
+    }
+
+    @Test
+    public void testAddresses() throws Exception {
+        TestThrottle throttle = new TestThrottle(1, 2, 100, 1);
+        assertEquals(2, acquire(throttle, this.address, 100));
+        assertEquals(2, acquire(throttle, InetAddress.getByName("10.0.0.2"), 100));
+    }
+
+    @Test
+    public void testIPv6Subnet() throws Exception {
+        TestThrottle throttle = new TestThrottle(1, 2, 100, 1);
+        assertEquals(2, acquire(throttle, InetAddress.getByName("2001:db8::1"), 100));
+        assertEquals(0, acquire(throttle, InetAddress.getByName("2001:db8::ffff"), 100));
+        assertEquals(2, acquire(throttle, InetAddress.getByName("2001:db8:0:1::1"), 100));
+    }
+
+    @Test
+    public void testOverflow() throws Exception {
+        TestThrottle throttle = new TestThrottle(1, 2, 1, 10);
+        assertEquals(2, acquire(throttle, this.address, 100));
+
+        // All other addresses share the overflow bucket, which bursts up to its rate
+        int accepted = 0;
+        for (int i = 0; i < 100; i++) {
+            accepted += acquire(throttle, InetAddress.getByName("10.0.1." + i), 1);
+        }
+        assertEquals(10, accepted);
+        assertEquals(1, throttle.getTrackedAddresses());
+    }
+
+    @Test
+    public void testSweep() {
+        TestThrottle throttle = new TestThrottle(1, 3, 100, 1);
+        assertEquals(1, acquire(throttle, this.address, 1));
+
+        // Not full yet
+        throttle.advance(999);
+        throttle.sweep();
+        assertEquals(1, throttle.getTrackedAddresses());
+
+        throttle.advance(1);
+        throttle.sweep();
+        assertEquals(0, throttle.getTrackedAddresses());
+        assertEquals(3, acquire(throttle, this.address, 100));
+    }
+
+    private static int acquire(ConnectionThrottle throttle, InetAddress address, int attempts) {
+        int accepted = 0;
+        for (int i = 0; i < attempts; i++) {
+            if (throttle.tryAcquire(address))
+                accepted++;
+        }
+        return accepted;
+    }
+
+    /**
+     * A throttle on a clock that only moves when it's told to
+     */
+    private static class TestThrottle extends ConnectionThrottle {
+
+        // Set after the overflow bucket is, so it's never behind the clock the bucket was made with
+        private long time = System.nanoTime();
+
+        TestThrottle(double rate, int burst, int maxAddresses, double overflowRate) {
+            super(rate, burst, maxAddresses, overflowRate);
+        }
+
+        void advance(long millis) {
+            this.time += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+
+        @Override
+        protected long nanoTime() {
+            return this.time;
+        }
+    }
+}